@@ -0,0 +1,39 @@
+package com.pneumaticraft.commandhandler.benchmarks;
+
+import com.pneumaticraft.commandhandler.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.permissions.Permission;
+import org.bukkit.permissions.PermissionDefault;
+import org.bukkit.plugin.Plugin;
+
+import java.util.List;
+
+/**
+ * A command shaped like the Multiverse ones: a "mv name" key, a short alias and a permission node, doing nothing.
+ */
+public class BenchCommand extends Command {
+    private int runs;
+
+    public BenchCommand(Plugin plugin, String name, int extraPermissions) {
+        super(plugin);
+        this.setName(name);
+        this.setCommandUsage("/mv " + name + " {ARGS}");
+        this.setArgRange(0, 3);
+        this.addKey("mv " + name);
+        this.addKey("mv" + name);
+        this.addCommandExample("/mv " + name + " example");
+        this.setPermission(new Permission("bench." + name, "Benchmark command " + name, PermissionDefault.OP));
+        for (int i = 0; i < extraPermissions; i++) {
+            this.addAdditonalPermission(new Permission("bench." + name + ".extra" + i, PermissionDefault.OP));
+        }
+    }
+
+    @Override
+    public void runCommand(CommandSender sender, List<String> args) {
+        this.runs += args.size() + 1;
+    }
+
+    public int getRuns() {
+        return this.runs;
+    }
+}
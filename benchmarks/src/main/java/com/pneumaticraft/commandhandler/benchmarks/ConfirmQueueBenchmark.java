@@ -0,0 +1,45 @@
+package com.pneumaticraft.commandhandler.benchmarks;
+
+import com.pneumaticraft.commandhandler.CommandHandler;
+import com.pneumaticraft.commandhandler.QueuedCommandCallback;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of queueing and confirming a command while thousands of other senders have one pending.
+ */
+@State(Scope.Benchmark)
+public class ConfirmQueueBenchmark {
+    @Param({"1000", "10000"})
+    public int pending;
+
+    private CommandHandler handler;
+    private Player confirming;
+    private QueuedCommandCallback callback;
+
+    @Setup
+    public void setUp() {
+        Plugin plugin = Stubs.plugin();
+        this.handler = new CommandHandler(plugin, Stubs.allPermissions());
+        this.callback = new QueuedCommandCallback() {
+            public boolean run() {
+                return true;
+            }
+        };
+        for (int i = 0; i < this.pending; i++) {
+            this.handler.queueCommand(Stubs.player("player" + i), "delete", this.callback, null, null, null, null, 60);
+        }
+        this.confirming = Stubs.player("confirming");
+    }
+
+    @Benchmark
+    public boolean queueAndConfirm() {
+        this.handler.queueCommand(this.confirming, "delete", this.callback, null, null, null, null, 60);
+        return this.handler.confirmQueuedCommand(this.confirming);
+    }
+}
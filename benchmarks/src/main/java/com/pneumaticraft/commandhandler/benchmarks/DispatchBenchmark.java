@@ -0,0 +1,54 @@
+package com.pneumaticraft.commandhandler.benchmarks;
+
+import com.pneumaticraft.commandhandler.CommandHandler;
+import org.bukkit.command.CommandSender;
+import org.bukkit.plugin.Plugin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of locateAndRunCommand as the number of registered commands grows.
+ */
+@State(Scope.Benchmark)
+public class DispatchBenchmark {
+    @Param({"10", "100", "1000"})
+    public int commands;
+
+    private CommandHandler handler;
+    private CommandSender sender;
+    private String[] hit;
+    private String[] alias;
+    private String[] miss;
+
+    @Setup
+    public void setUp() {
+        Plugin plugin = Stubs.plugin();
+        this.handler = new CommandHandler(plugin, Stubs.allPermissions());
+        for (int i = 0; i < this.commands; i++) {
+            this.handler.registerCommand(new BenchCommand(plugin, "cmd" + i, 0));
+        }
+        this.sender = Stubs.sender("CONSOLE");
+        // The last command registered, with two args after its key.
+        this.hit = new String[]{"mv", "cmd" + (this.commands - 1), "world", "-g"};
+        this.alias = new String[]{"mvcmd" + (this.commands / 2), "world"};
+        this.miss = new String[]{"mv", "nosuchcommand", "world"};
+    }
+
+    @Benchmark
+    public boolean dispatchHit() {
+        return this.handler.locateAndRunCommand(this.sender, this.hit);
+    }
+
+    @Benchmark
+    public boolean dispatchAlias() {
+        return this.handler.locateAndRunCommand(this.sender, this.alias);
+    }
+
+    @Benchmark
+    public boolean dispatchMiss() {
+        return this.handler.locateAndRunCommand(this.sender, this.miss);
+    }
+}
@@ -0,0 +1,56 @@
+package com.pneumaticraft.commandhandler.benchmarks;
+
+import com.pneumaticraft.commandhandler.CachingPermissionsInterface;
+import com.pneumaticraft.commandhandler.Command;
+import com.pneumaticraft.commandhandler.CommandHandler;
+import com.pneumaticraft.commandhandler.PermissionsInterface;
+import org.bukkit.command.CommandSender;
+import org.bukkit.plugin.Plugin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+/**
+ * Cost of getCommands(sender), which checks every command's permissions, with and without the caching decorator.
+ */
+@State(Scope.Benchmark)
+public class PermissionBenchmark {
+    @Param({"100", "1000"})
+    public int commands;
+
+    @Param({"0", "8"})
+    public int extraPermissions;
+
+    private CommandHandler plainHandler;
+    private CommandHandler cachingHandler;
+    private CommandSender sender;
+
+    @Setup
+    public void setUp() {
+        Plugin plugin = Stubs.plugin();
+        // The sender has every command's primary node, like a typical op.
+        PermissionsInterface permissions = Stubs.permissions(Stubs.nodes("bench.cmd", this.commands));
+        this.plainHandler = new CommandHandler(plugin, permissions);
+        this.cachingHandler = new CommandHandler(plugin, new CachingPermissionsInterface(permissions, this.commands * 2));
+        for (int i = 0; i < this.commands; i++) {
+            Command command = new BenchCommand(plugin, "cmd" + i, this.extraPermissions);
+            this.plainHandler.registerCommand(command);
+            this.cachingHandler.registerCommand(command);
+        }
+        this.sender = Stubs.sender("CONSOLE");
+    }
+
+    @Benchmark
+    public List<Command> getCommands() {
+        return this.plainHandler.getCommands(this.sender);
+    }
+
+    @Benchmark
+    public List<Command> getCommandsCached() {
+        return this.cachingHandler.getCommands(this.sender);
+    }
+}
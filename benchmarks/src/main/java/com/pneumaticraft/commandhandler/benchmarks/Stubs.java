@@ -0,0 +1,180 @@
+package com.pneumaticraft.commandhandler.benchmarks;
+
+import com.pneumaticraft.commandhandler.PermissionsInterface;
+import org.bukkit.Server;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.scheduler.BukkitScheduler;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * Just enough of Bukkit to drive a CommandHandler outside of a server. Every interface is a dynamic proxy that
+ * answers the handful of calls CommandHandler makes and returns defaults for everything else.
+ */
+public final class Stubs {
+    private Stubs() {
+    }
+
+    public static Plugin plugin() {
+        final PluginManager pluginManager = proxy(PluginManager.class, new Answers());
+        final BukkitScheduler scheduler = proxy(BukkitScheduler.class, new Answers());
+        final Server server = proxy(Server.class, new Answers() {
+            @Override
+            Object answer(Object self, Method method, Object[] args) {
+                if (method.getName().equals("getPluginManager")) {
+                    return pluginManager;
+                }
+                if (method.getName().equals("getScheduler")) {
+                    return scheduler;
+                }
+                if (method.getName().equals("isPrimaryThread")) {
+                    return true;
+                }
+                return super.answer(self, method, args);
+            }
+        });
+        final Logger logger = Logger.getLogger("CommandHandler-benchmarks");
+        return proxy(Plugin.class, new Answers() {
+            @Override
+            Object answer(Object self, Method method, Object[] args) {
+                if (method.getName().equals("getServer")) {
+                    return server;
+                }
+                if (method.getName().equals("getLogger")) {
+                    return logger;
+                }
+                if (method.getName().equals("getName")) {
+                    return "Benchmarks";
+                }
+                return super.answer(self, method, args);
+            }
+        });
+    }
+
+    /** A console-like sender that swallows every message. */
+    public static CommandSender sender(final String name) {
+        return proxy(CommandSender.class, new Answers() {
+            @Override
+            Object answer(Object self, Method method, Object[] args) {
+                if (method.getName().equals("getName")) {
+                    return name;
+                }
+                return super.answer(self, method, args);
+            }
+        });
+    }
+
+    /** A player with a random UUID that swallows every message. */
+    public static Player player(final String name) {
+        final UUID uuid = UUID.randomUUID();
+        return proxy(Player.class, new Answers() {
+            @Override
+            Object answer(Object self, Method method, Object[] args) {
+                if (method.getName().equals("getName")) {
+                    return name;
+                }
+                if (method.getName().equals("getUniqueId")) {
+                    return uuid;
+                }
+                return super.answer(self, method, args);
+            }
+        });
+    }
+
+    /**
+     * A permissions interface that looks nodes up in a set, like a permission plugin with everything already cached.
+     *
+     * @param granted The nodes every sender has.
+     */
+    public static PermissionsInterface permissions(final Set<String> granted) {
+        return new PermissionsInterface() {
+            public boolean hasPermission(CommandSender sender, String node, boolean isOpRequired) {
+                return granted.contains(node);
+            }
+
+            public boolean hasAnyPermission(CommandSender sender, List<String> allPermissionStrings, boolean opRequired) {
+                for (String node : allPermissionStrings) {
+                    if (granted.contains(node)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            public boolean hasAllPermission(CommandSender sender, List<String> allPermissionStrings, boolean opRequired) {
+                return granted.containsAll(allPermissionStrings);
+            }
+        };
+    }
+
+    public static PermissionsInterface allPermissions() {
+        return new PermissionsInterface() {
+            public boolean hasPermission(CommandSender sender, String node, boolean isOpRequired) {
+                return true;
+            }
+
+            public boolean hasAnyPermission(CommandSender sender, List<String> allPermissionStrings, boolean opRequired) {
+                return true;
+            }
+
+            public boolean hasAllPermission(CommandSender sender, List<String> allPermissionStrings, boolean opRequired) {
+                return true;
+            }
+        };
+    }
+
+    public static Set<String> nodes(String prefix, int count) {
+        Set<String> nodes = new HashSet<String>();
+        for (int i = 0; i < count; i++) {
+            nodes.add(prefix + i);
+        }
+        return nodes;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private static class Answers implements InvocationHandler {
+        public Object invoke(Object self, Method method, Object[] args) {
+            if (method.getName().equals("equals") && args != null && args.length == 1) {
+                return self == args[0];
+            }
+            if (method.getName().equals("hashCode") && args == null) {
+                return System.identityHashCode(self);
+            }
+            if (method.getName().equals("toString") && args == null) {
+                return "Stub" + self.getClass().getInterfaces()[0].getSimpleName();
+            }
+            return this.answer(self, method, args);
+        }
+
+        Object answer(Object self, Method method, Object[] args) {
+            Class<?> type = method.getReturnType();
+            if (type == boolean.class) {
+                return false;
+            }
+            if (type == int.class) {
+                return 0;
+            }
+            if (type == long.class) {
+                return 0L;
+            }
+            if (type == double.class) {
+                return 0D;
+            }
+            return null;
+        }
+    }
+}
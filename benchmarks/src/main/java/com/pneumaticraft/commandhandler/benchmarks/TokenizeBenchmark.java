@@ -0,0 +1,51 @@
+package com.pneumaticraft.commandhandler.benchmarks;
+
+import com.pneumaticraft.commandhandler.TokenizedArgs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+/**
+ * Cost of combining quoted args, the work parseAllQuotedStrings used to do, with long quoted inputs.
+ */
+@State(Scope.Thread)
+public class TokenizeBenchmark {
+    @Param({"4", "32", "256"})
+    public int words;
+
+    private String[] plain;
+    private String[] quoted;
+    private TokenizedArgs tokens;
+
+    @Setup
+    public void setUp() {
+        this.plain = new String[this.words + 2];
+        this.quoted = new String[this.words + 2];
+        this.plain[0] = this.quoted[0] = "mv";
+        this.plain[1] = this.quoted[1] = "modify";
+        for (int i = 0; i < this.words; i++) {
+            this.plain[i + 2] = "word" + i;
+            this.quoted[i + 2] = "word" + i;
+        }
+        // One quoted string spanning every word after the key.
+        this.quoted[2] = "\"" + this.quoted[2];
+        this.quoted[this.quoted.length - 1] = this.quoted[this.quoted.length - 1] + "\"";
+        this.tokens = new TokenizedArgs();
+    }
+
+    @Benchmark
+    public List<String> plainArgs() {
+        this.tokens.tokenize(this.plain);
+        return this.tokens.toList(2);
+    }
+
+    @Benchmark
+    public List<String> longQuotedArg() {
+        this.tokens.tokenize(this.quoted);
+        return this.tokens.toList(2);
+    }
+}
@@ -0,0 +1,21 @@
+package com.pneumaticraft.commandhandler;
+
+import org.bukkit.command.CommandSender;
+
+/**
+ * Turns a single arg into a value of some type, ie: a world name into its {@link org.bukkit.World}. Converters are
+ * registered once with {@link ArgumentConverters} and reused for every command, so they must not keep any state.
+ *
+ * @param <T> The type the arg is converted to.
+ */
+public interface ArgumentConverter<T> {
+    /**
+     * @param sender The sender of the command, ie: to resolve "~" to their own world.
+     * @param arg    The arg as typed.
+     *
+     * @return The converted value, never null.
+     *
+     * @throws IllegalArgumentException If the arg can't be converted. The message is shown to the sender.
+     */
+    public T convert(CommandSender sender, String arg);
+}
@@ -0,0 +1,147 @@
+package com.pneumaticraft.commandhandler;
+
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The converters used to parse typed args, one per type. Strings, numbers, booleans, online players, worlds and enums
+ * are supported out of the box; plugins can {@link #register} their own or replace the built in ones.
+ */
+public class ArgumentConverters {
+    private final ConcurrentMap<Class<?>, ArgumentConverter<?>> converters;
+
+    public ArgumentConverters(Plugin plugin) {
+        this.converters = new ConcurrentHashMap<Class<?>, ArgumentConverter<?>>();
+        final Server server = plugin.getServer();
+
+        this.register(String.class, new ArgumentConverter<String>() {
+            public String convert(CommandSender sender, String arg) {
+                return arg;
+            }
+        });
+        ArgumentConverter<Integer> integer = new ArgumentConverter<Integer>() {
+            public Integer convert(CommandSender sender, String arg) {
+                try {
+                    return Integer.valueOf(arg);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("'" + arg + "' is not a whole number.");
+                }
+            }
+        };
+        this.register(Integer.class, integer);
+        this.converters.put(int.class, integer);
+        ArgumentConverter<Long> longConverter = new ArgumentConverter<Long>() {
+            public Long convert(CommandSender sender, String arg) {
+                try {
+                    return Long.valueOf(arg);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("'" + arg + "' is not a whole number.");
+                }
+            }
+        };
+        this.register(Long.class, longConverter);
+        this.converters.put(long.class, longConverter);
+        ArgumentConverter<Double> doubleConverter = new ArgumentConverter<Double>() {
+            public Double convert(CommandSender sender, String arg) {
+                try {
+                    return Double.valueOf(arg);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("'" + arg + "' is not a number.");
+                }
+            }
+        };
+        this.register(Double.class, doubleConverter);
+        this.converters.put(double.class, doubleConverter);
+        ArgumentConverter<Boolean> bool = new ArgumentConverter<Boolean>() {
+            public Boolean convert(CommandSender sender, String arg) {
+                if (arg.equalsIgnoreCase("true") || arg.equalsIgnoreCase("yes") || arg.equalsIgnoreCase("on")) {
+                    return Boolean.TRUE;
+                }
+                if (arg.equalsIgnoreCase("false") || arg.equalsIgnoreCase("no") || arg.equalsIgnoreCase("off")) {
+                    return Boolean.FALSE;
+                }
+                throw new IllegalArgumentException("'" + arg + "' is not true or false.");
+            }
+        };
+        this.register(Boolean.class, bool);
+        this.converters.put(boolean.class, bool);
+        this.register(Player.class, new ArgumentConverter<Player>() {
+            public Player convert(CommandSender sender, String arg) {
+                Player player = server.getPlayerExact(arg);
+                if (player == null) {
+                    throw new IllegalArgumentException("No player named '" + arg + "' is online.");
+                }
+                return player;
+            }
+        });
+        this.register(World.class, new ArgumentConverter<World>() {
+            public World convert(CommandSender sender, String arg) {
+                World world = server.getWorld(arg);
+                if (world == null) {
+                    throw new IllegalArgumentException("There is no world named '" + arg + "'.");
+                }
+                return world;
+            }
+        });
+    }
+
+    /**
+     * @param type      The type to convert args to.
+     * @param converter The converter to use for it from now on.
+     */
+    public <T> void register(Class<T> type, ArgumentConverter<? extends T> converter) {
+        this.converters.put(type, converter);
+    }
+
+    /**
+     * @param type The type to convert args to.
+     *
+     * @return The converter for that type, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> ArgumentConverter<T> get(Class<T> type) {
+        ArgumentConverter<?> converter = this.converters.get(type);
+        if (converter == null && type.isEnum()) {
+            converter = enumConverter(type.asSubclass(Enum.class));
+            ArgumentConverter<?> raced = this.converters.putIfAbsent(type, converter);
+            if (raced != null) {
+                converter = raced;
+            }
+        }
+        return (ArgumentConverter<T>) converter;
+    }
+
+    /**
+     * Converts an arg with the converter registered for the given type.
+     *
+     * @throws IllegalArgumentException If the arg can't be converted.
+     * @throws IllegalStateException    If no converter is registered for the type.
+     */
+    public <T> T convert(CommandSender sender, Class<T> type, String arg) {
+        ArgumentConverter<T> converter = this.get(type);
+        if (converter == null) {
+            throw new IllegalStateException("No ArgumentConverter is registered for " + type.getName());
+        }
+        return converter.convert(sender, arg);
+    }
+
+    private static <E extends Enum<E>> ArgumentConverter<E> enumConverter(final Class<E> type) {
+        return new ArgumentConverter<E>() {
+            public E convert(CommandSender sender, String arg) {
+                for (E constant : type.getEnumConstants()) {
+                    if (constant.name().equalsIgnoreCase(arg)) {
+                        return constant;
+                    }
+                }
+                throw new IllegalArgumentException("'" + arg + "' is not one of " + Arrays.toString(type.getEnumConstants()).toLowerCase() + ".");
+            }
+        };
+    }
+}
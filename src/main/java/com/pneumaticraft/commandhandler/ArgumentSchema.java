@@ -0,0 +1,194 @@
+package com.pneumaticraft.commandhandler;
+
+import org.bukkit.command.CommandSender;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Declares the args a command takes: positional parameters, required ones first, and flags like -s or -g that may
+ * appear anywhere and either stand alone or take the next arg as their value. Set it with
+ * {@link Command#setArgumentSchema(ArgumentSchema)} once it's complete; it decides the command's arg range from then
+ * on, and its args are handed to {@link Command#runCommand(CommandSender, CommandArguments)} already converted. A
+ * schema can't be changed once it was set on a command.
+ */
+public class ArgumentSchema {
+    private final List<String> parameterNames;
+    private final List<Class<?>> parameterTypes;
+    private final Map<String, Integer> parameterIndex;
+    private int requiredParameters;
+
+    private final List<String> flagNames;
+    private final List<Class<?>> flagTypes;
+    private final Map<String, Integer> flagIndex;
+    private volatile boolean frozen;
+
+    public ArgumentSchema() {
+        this.parameterNames = new ArrayList<String>();
+        this.parameterTypes = new ArrayList<Class<?>>();
+        this.parameterIndex = new HashMap<String, Integer>();
+        this.flagNames = new ArrayList<String>();
+        this.flagTypes = new ArrayList<Class<?>>();
+        this.flagIndex = new HashMap<String, Integer>();
+    }
+
+    /**
+     * Adds a parameter that must be given. All required parameters come before the optional ones.
+     *
+     * @param name The name to look the value up by, see {@link CommandArguments#get(String)}.
+     * @param type The type to convert the arg to. There must be a converter for it in {@link ArgumentConverters}.
+     */
+    public void addParameter(String name, Class<?> type) {
+        this.checkNotFrozen();
+        if (this.requiredParameters != this.parameterNames.size()) {
+            throw new IllegalStateException("Required parameter " + name + " can't follow an optional one.");
+        }
+        this.addParameter0(name, type);
+        this.requiredParameters++;
+    }
+
+    /**
+     * Adds a parameter that may be left out, after all required ones.
+     *
+     * @see #addParameter(String, Class)
+     */
+    public void addOptionalParameter(String name, Class<?> type) {
+        this.checkNotFrozen();
+        this.addParameter0(name, type);
+    }
+
+    private void addParameter0(String name, Class<?> type) {
+        this.parameterIndex.put(name, this.parameterNames.size());
+        this.parameterNames.add(name);
+        this.parameterTypes.add(type);
+    }
+
+    /**
+     * Adds a flag that stands on its own, ie: -s.
+     *
+     * @param flag The flag, including the dash. Flags are matched case insensitively.
+     */
+    public void addFlag(String flag) {
+        this.addFlag(flag, null);
+    }
+
+    /**
+     * Adds a flag that takes the next arg as its value, ie: -g generator.
+     *
+     * @param flag The flag, including the dash. Flags are matched case insensitively.
+     * @param type The type to convert the value to, or null for a flag without value.
+     */
+    public void addFlag(String flag, Class<?> type) {
+        this.checkNotFrozen();
+        if (flag.length() < 2 || flag.charAt(0) != '-') {
+            throw new IllegalArgumentException("Flags must start with a dash: " + flag);
+        }
+        this.flagIndex.put(flag.toLowerCase(), this.flagNames.size());
+        this.flagNames.add(flag.toLowerCase());
+        this.flagTypes.add(type);
+    }
+
+    /**
+     * Called when the schema is set on a command, whose descriptor is built from it.
+     */
+    void freeze() {
+        this.frozen = true;
+    }
+
+    private void checkNotFrozen() {
+        if (this.frozen) {
+            throw new IllegalStateException("The schema can't be changed once it was set on a command.");
+        }
+    }
+
+    /** @return How many args this takes at least. */
+    public int getMinArgs() {
+        return this.requiredParameters;
+    }
+
+    /** @return How many args this takes at most, counting every flag and flag value. */
+    public int getMaxArgs() {
+        int max = this.parameterNames.size();
+        for (Class<?> type : this.flagTypes) {
+            max += type == null ? 1 : 2;
+        }
+        return max;
+    }
+
+    /**
+     * @param args The args after the command's key.
+     *
+     * @return Whether the args that aren't flags fit the parameters.
+     */
+    public boolean checkArgLength(List<String> args) {
+        int positional = 0;
+        for (int i = 0; i < args.size(); i++) {
+            int flag = this.flagOf(args.get(i));
+            if (flag < 0) {
+                positional++;
+            } else if (this.flagTypes.get(flag) != null) {
+                i++;
+            }
+        }
+        return this.requiredParameters <= positional && positional <= this.parameterNames.size();
+    }
+
+    /**
+     * Converts the args, which must have passed {@link #checkArgLength(List)}.
+     *
+     * @param sender     The sender of the command.
+     * @param args       The args after the command's key.
+     * @param converters The converters to use.
+     *
+     * @return The converted args.
+     *
+     * @throws IllegalArgumentException If an arg can't be converted, with a message for the sender.
+     */
+    public CommandArguments parse(CommandSender sender, List<String> args, ArgumentConverters converters) {
+        Object[] values = new Object[this.parameterNames.size()];
+        Object[] flags = new Object[this.flagNames.size()];
+        int positional = 0;
+        for (int i = 0; i < args.size(); i++) {
+            String arg = args.get(i);
+            int flag = this.flagOf(arg);
+            if (flag < 0) {
+                values[positional] = converters.convert(sender, this.parameterTypes.get(positional), arg);
+                positional++;
+            } else if (this.flagTypes.get(flag) == null) {
+                flags[flag] = Boolean.TRUE;
+            } else {
+                if (i + 1 >= args.size()) {
+                    throw new IllegalArgumentException("Flag " + arg + " needs a value.");
+                }
+                flags[flag] = converters.convert(sender, this.flagTypes.get(flag), args.get(++i));
+            }
+        }
+        return new CommandArguments(this, args, values, positional, flags);
+    }
+
+    private int flagOf(String arg) {
+        if (this.flagIndex.isEmpty() || arg.length() < 2 || arg.charAt(0) != '-') {
+            return -1;
+        }
+        Integer index = this.flagIndex.get(arg.toLowerCase());
+        return index == null ? -1 : index;
+    }
+
+    int indexOfParameter(String name) {
+        Integer index = this.parameterIndex.get(name);
+        if (index == null) {
+            throw new IllegalArgumentException("No parameter named " + name);
+        }
+        return index;
+    }
+
+    int indexOfFlag(String flag) {
+        Integer index = this.flagIndex.get(flag.toLowerCase());
+        if (index == null) {
+            throw new IllegalArgumentException("No flag named " + flag);
+        }
+        return index;
+    }
+}
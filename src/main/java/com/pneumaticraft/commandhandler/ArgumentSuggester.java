@@ -0,0 +1,19 @@
+package com.pneumaticraft.commandhandler;
+
+import org.bukkit.command.CommandSender;
+
+import java.util.List;
+
+/**
+ * Suggests values for one argument of a {@link Command} when a sender presses tab, ie: world names.
+ */
+public interface ArgumentSuggester {
+    /**
+     * @param sender       The sender pressing tab.
+     * @param previousArgs The args before the one being completed, without the command's key.
+     * @param prefix       What has been typed of the arg so far. May be empty.
+     *
+     * @return Possible values. Those not starting with the prefix are filtered out afterwards.
+     */
+    public List<String> suggest(CommandSender sender, List<String> previousArgs, String prefix);
+}
@@ -0,0 +1,126 @@
+package com.pneumaticraft.commandhandler;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.plugin.IllegalPluginAccessException;
+import org.bukkit.plugin.Plugin;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Runs commands that declared themselves async ({@link Command#isAsync()}) off the server thread. At most a fixed
+ * number of them run at once; anything beyond that is turned away instead of piling up.
+ *
+ * Virtual threads are used when the JVM has them, otherwise a small pool of daemon threads that go away when idle.
+ */
+public class AsyncCommandExecutor {
+    private Plugin plugin;
+    private ExecutorService executor;
+    private Semaphore permits;
+
+    public AsyncCommandExecutor(Plugin plugin, int maxConcurrent) {
+        this(plugin, maxConcurrent, createExecutor(plugin, maxConcurrent));
+    }
+
+    /**
+     * @param plugin        The plugin owning the commands.
+     * @param maxConcurrent How many async commands may run at the same time.
+     * @param executor      The executor to run them on. It is shut down along with this.
+     */
+    public AsyncCommandExecutor(Plugin plugin, int maxConcurrent, ExecutorService executor) {
+        this.plugin = plugin;
+        this.permits = new Semaphore(maxConcurrent);
+        this.executor = executor;
+    }
+
+    private static ExecutorService createExecutor(final Plugin plugin, int maxConcurrent) {
+        try {
+            Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (Exception e) {
+            // Not available on this JVM.
+        }
+        final AtomicInteger threadCount = new AtomicInteger();
+        // The semaphore bounds the work, so the pool never needs to queue anything.
+        return new ThreadPoolExecutor(0, maxConcurrent, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, plugin.getName() + "-CommandHandler-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Runs the command in the background and reports back to it on the server thread once it's done.
+     *
+     * @param sender  The sender of the command.
+     * @param command The command to run.
+     * @param args    The args, with the key already removed.
+     *
+     * @return False if too many async commands are already running, in which case nothing was started.
+     */
+    public boolean submit(CommandSender sender, Command command, List<String> args) {
+        return this.submit(sender, command, args, null);
+    }
+
+    /**
+     * @param arguments The args converted according to the command's schema, or null if it has none.
+     *
+     * @see #submit(CommandSender, Command, List)
+     */
+    public boolean submit(final CommandSender sender, final Command command, final List<String> args, final CommandArguments arguments) {
+        if (!this.permits.tryAcquire()) {
+            return false;
+        }
+        try {
+            this.executor.execute(new Runnable() {
+                public void run() {
+                    Throwable error = null;
+                    try {
+                        command.invoke(sender, args, arguments);
+                    } catch (Throwable t) {
+                        error = t;
+                        plugin.getLogger().log(Level.SEVERE, "Async command " + command.getCommandName() + " failed", t);
+                    } finally {
+                        permits.release();
+                    }
+                    reportCompletion(sender, command, args, error);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.permits.release();
+            return false;
+        }
+        return true;
+    }
+
+    private void reportCompletion(final CommandSender sender, final Command command, final List<String> args, final Throwable error) {
+        try {
+            this.plugin.getServer().getScheduler().runTask(this.plugin, new Runnable() {
+                public void run() {
+                    command.asyncCompleted(sender, args, error);
+                }
+            });
+        } catch (IllegalPluginAccessException e) {
+            // The plugin was disabled while the command ran; there is nobody left to tell.
+        }
+    }
+
+    /**
+     * Stops accepting commands. Commands that are still running are left to finish.
+     */
+    public void shutdown() {
+        this.executor.shutdown();
+    }
+}
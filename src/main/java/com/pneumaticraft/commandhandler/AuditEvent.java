@@ -0,0 +1,78 @@
+package com.pneumaticraft.commandhandler;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One audited command, see {@link AuditLog}.
+ */
+public class AuditEvent {
+    private final long timeMillis;
+    private final String senderName;
+    private final Command command;
+    private final String key;
+    private final String[] args;
+    private final DispatchStatus status;
+    private final long durationNanos;
+
+    /**
+     * @param timeMillis    When the command was dispatched, as {@link System#currentTimeMillis()}.
+     * @param senderName    The name of whoever sent it.
+     * @param command       The command that matched.
+     * @param key           The key it matched by.
+     * @param args          The args that were left after the key. They are copied.
+     * @param status        What happened.
+     * @param durationNanos How long checking and running the command took.
+     */
+    public AuditEvent(long timeMillis, String senderName, Command command, String key, List<String> args, DispatchStatus status, long durationNanos) {
+        this.timeMillis = timeMillis;
+        this.senderName = senderName;
+        this.command = command;
+        this.key = key;
+        this.args = args.toArray(new String[args.size()]);
+        this.status = status;
+        this.durationNanos = durationNanos;
+    }
+
+    public long getTimeMillis() {
+        return this.timeMillis;
+    }
+
+    public String getSenderName() {
+        return this.senderName;
+    }
+
+    public Command getCommand() {
+        return this.command;
+    }
+
+    public String getKey() {
+        return this.key;
+    }
+
+    public List<String> getArgs() {
+        return Collections.unmodifiableList(Arrays.asList(this.args));
+    }
+
+    public DispatchStatus getStatus() {
+        return this.status;
+    }
+
+    public long getDurationNanos() {
+        return this.durationNanos;
+    }
+
+    /** @return The event as it is written to the log, without the time. */
+    @Override
+    public String toString() {
+        StringBuilder line = new StringBuilder();
+        line.append(this.senderName).append(" /").append(this.key);
+        for (String arg : this.args) {
+            line.append(' ').append(arg);
+        }
+        line.append(" -> ").append(this.status);
+        line.append(String.format(" (%.3fms)", this.durationNanos / 1000000.0));
+        return line.toString();
+    }
+}
@@ -0,0 +1,325 @@
+package com.pneumaticraft.commandhandler;
+
+import org.bukkit.plugin.Plugin;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+
+/**
+ * Writes audited commands ({@link Command#isAudited()}) to an append-only file without ever touching the disk on the
+ * thread that dispatched them. Events go into a fixed size ring buffer that any number of threads can add to without
+ * locking, and a background thread writes whatever piled up in one go every flush interval.
+ *
+ * When the file grows past {@link #setMaxFileSize(long)} it is rolled over: "commands.log" becomes "commands.log.1",
+ * "commands.log.1" becomes "commands.log.2" and so on, keeping at most {@link #setMaxFiles(int)} old files.
+ */
+public class AuditLog {
+    /**
+     * What to do with an event when the buffer is full, because the disk can't keep up.
+     */
+    public enum Backpressure {
+        /** Throw the event away and count it, see {@link #getDropped()}. The server never waits for the disk. */
+        DROP,
+        /** Wait until the writer made room. No event is lost unless the log is closed meanwhile. */
+        BLOCK
+    }
+
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final Plugin plugin;
+    private final Path file;
+    private final Backpressure backpressure;
+    private final long flushIntervalNanos;
+    private volatile long maxFileSize = 10 * 1024 * 1024;
+    private volatile int maxFiles = 5;
+
+    // Each slot's sequence tells whose turn it is: a producer may fill slot i at position p when it is p, the writer
+    // may take it when it is p + 1.
+    private final int mask;
+    private final AtomicReferenceArray<AuditEvent> events;
+    private final AtomicLongArray sequences;
+    private final AtomicLong producerPosition;
+    private long consumerPosition;
+    private final AtomicLong dropped;
+    // How many threads are in record() right now, so close() can wait for them before the writer's last drain.
+    private final AtomicInteger recording;
+
+    private volatile boolean closed;
+    private volatile boolean running;
+    private Thread writer;
+    private FileChannel channel;
+    private long fileSize;
+    private SimpleDateFormat dateFormat;
+
+    /**
+     * @param plugin          The plugin whose logger write errors go to.
+     * @param file            The file to append to. Its directory is created if needed.
+     * @param capacity        How many events can wait to be written, rounded up to a power of two.
+     * @param flushInterval   How often the writer writes what piled up, in milliseconds.
+     * @param backpressure    What to do when the buffer is full.
+     */
+    public AuditLog(Plugin plugin, Path file, int capacity, long flushInterval, Backpressure backpressure) {
+        this.plugin = plugin;
+        this.file = file;
+        this.backpressure = backpressure;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushInterval));
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.mask = size - 1;
+        this.events = new AtomicReferenceArray<AuditEvent>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            this.sequences.set(i, i);
+        }
+        this.producerPosition = new AtomicLong();
+        this.dropped = new AtomicLong();
+        this.recording = new AtomicInteger();
+    }
+
+    /**
+     * @param bytes How large the file may get before it is rolled over, 10 MB by default.
+     */
+    public void setMaxFileSize(long bytes) {
+        this.maxFileSize = bytes;
+    }
+
+    /**
+     * @param files How many rolled over files to keep, 5 by default. 0 throws them away right away.
+     */
+    public void setMaxFiles(int files) {
+        this.maxFiles = files;
+    }
+
+    public Path getFile() {
+        return this.file;
+    }
+
+    /** @return How many events were thrown away because the buffer was full or the log was closed. */
+    public long getDropped() {
+        return this.dropped.get();
+    }
+
+    /**
+     * Starts the background writer. Events recorded before wait in the buffer.
+     */
+    public synchronized void start() {
+        if (this.writer != null) {
+            return;
+        }
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                writeLoop();
+            }
+        }, this.plugin.getName() + "-CommandHandler-audit");
+        thread.setDaemon(true);
+        this.writer = thread;
+        // Published by the volatile write, so producers that see the log running also see the thread to wake.
+        this.running = true;
+        thread.start();
+    }
+
+    /**
+     * Writes everything that is still buffered and stops the background writer. Events recorded afterwards are dropped
+     * and counted, see {@link #getDropped()}.
+     */
+    public void close() {
+        Thread current;
+        synchronized (this) {
+            this.closed = true;
+            // Whoever got past the check in record() is still written, as the writer keeps going until they're done.
+            while (this.recording.get() != 0) {
+                Thread.yield();
+            }
+            this.running = false;
+            current = this.writer;
+        }
+        if (current == null) {
+            return;
+        }
+        LockSupport.unpark(current);
+        try {
+            current.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Adds an event to the buffer, from any thread.
+     *
+     * @param event The event to write.
+     *
+     * @return False if the event was dropped.
+     */
+    public boolean record(AuditEvent event) {
+        // Announced before checking whether the log is closed, so close() either sees this thread or this thread sees
+        // the log closed. Otherwise the event could land in the buffer after the writer's last drain.
+        this.recording.incrementAndGet();
+        try {
+            if (this.closed) {
+                this.dropped.incrementAndGet();
+                return false;
+            }
+            while (true) {
+                if (this.offer(event)) {
+                    return true;
+                }
+                if (this.backpressure == Backpressure.DROP || !this.running) {
+                    this.dropped.incrementAndGet();
+                    return false;
+                }
+                // Full: hurry the writer along and wait for it to make room.
+                LockSupport.unpark(this.writer);
+                LockSupport.parkNanos(BLOCK_PARK_NANOS);
+            }
+        } finally {
+            this.recording.decrementAndGet();
+        }
+    }
+
+    private boolean offer(AuditEvent event) {
+        while (true) {
+            long position = this.producerPosition.get();
+            int slot = (int) position & this.mask;
+            long difference = this.sequences.get(slot) - position;
+            if (difference < 0) {
+                // The writer has not taken the event from a lap ago yet.
+                return false;
+            }
+            if (difference == 0 && this.producerPosition.compareAndSet(position, position + 1)) {
+                this.events.lazySet(slot, event);
+                this.sequences.set(slot, position + 1);
+                return true;
+            }
+            // Another producer got this position first; try the next one.
+        }
+    }
+
+    /** Only called by the writer thread. */
+    private AuditEvent poll() {
+        int slot = (int) this.consumerPosition & this.mask;
+        if (this.sequences.get(slot) != this.consumerPosition + 1) {
+            return null;
+        }
+        AuditEvent event = this.events.get(slot);
+        this.events.lazySet(slot, null);
+        this.sequences.set(slot, this.consumerPosition + this.mask + 1);
+        this.consumerPosition++;
+        return event;
+    }
+
+    private void writeLoop() {
+        this.dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        StringBuilder batch = new StringBuilder();
+        boolean more = true;
+        while (more) {
+            LockSupport.parkNanos(this, this.flushIntervalNanos);
+            // Read before draining, so nothing that was recorded before close() is left behind.
+            more = this.running;
+            while (this.drain(batch)) {
+                // Producers kept up with the writer; write the next batch right away.
+            }
+        }
+        if (this.channel != null) {
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                this.logWriteError(e);
+            }
+            this.channel = null;
+        }
+    }
+
+    /**
+     * Writes at most one buffer's worth of events, so a busy server can't make a single batch grow without end.
+     *
+     * @return Whether there may be more events waiting.
+     */
+    private boolean drain(StringBuilder batch) {
+        int count = 0;
+        AuditEvent event;
+        while (count <= this.mask && (event = this.poll()) != null) {
+            batch.append(this.dateFormat.format(new Date(event.getTimeMillis()))).append(' ').append(event).append('\n');
+            count++;
+        }
+        if (count == 0) {
+            return false;
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(batch.toString().getBytes(StandardCharsets.UTF_8));
+        batch.setLength(0);
+        try {
+            if (this.channel == null || (this.fileSize > 0 && this.fileSize + bytes.remaining() > this.maxFileSize)) {
+                this.openFile();
+            }
+            while (bytes.hasRemaining()) {
+                this.fileSize += this.channel.write(bytes);
+            }
+            this.channel.force(false);
+        } catch (IOException e) {
+            this.logWriteError(e);
+            // Start over with a fresh channel next time.
+            this.closeQuietly();
+        }
+        return count > this.mask;
+    }
+
+    private void openFile() throws IOException {
+        if (this.channel != null) {
+            this.channel.close();
+            this.channel = null;
+            this.roll();
+        } else if (Files.exists(this.file) && Files.size(this.file) >= this.maxFileSize) {
+            this.roll();
+        }
+        if (this.file.getParent() != null) {
+            Files.createDirectories(this.file.getParent());
+        }
+        this.channel = FileChannel.open(this.file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.fileSize = this.channel.size();
+    }
+
+    private void roll() throws IOException {
+        int files = this.maxFiles;
+        String name = this.file.getFileName().toString();
+        Files.deleteIfExists(this.file.resolveSibling(name + "." + files));
+        for (int i = files - 1; i >= 1; i--) {
+            Path older = this.file.resolveSibling(name + "." + i);
+            if (Files.exists(older)) {
+                Files.move(older, this.file.resolveSibling(name + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (files > 0) {
+            Files.move(this.file, this.file.resolveSibling(name + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(this.file);
+        }
+    }
+
+    private void closeQuietly() {
+        if (this.channel != null) {
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+            }
+            this.channel = null;
+        }
+    }
+
+    private void logWriteError(IOException e) {
+        this.plugin.getLogger().log(Level.WARNING, "Could not write the command audit log " + this.file, e);
+    }
+}
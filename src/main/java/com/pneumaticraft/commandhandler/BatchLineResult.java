@@ -0,0 +1,41 @@
+package com.pneumaticraft.commandhandler;
+
+/**
+ * The outcome of one line of a batch, see {@link CommandHandler#runBatch(org.bukkit.command.CommandSender, Iterable, boolean, boolean)}.
+ */
+public class BatchLineResult {
+    private final int lineNumber;
+    private final String line;
+    private final DispatchStatus status;
+    private final Throwable error;
+
+    public BatchLineResult(int lineNumber, String line, DispatchStatus status, Throwable error) {
+        this.lineNumber = lineNumber;
+        this.line = line;
+        this.status = status;
+        this.error = error;
+    }
+
+    /** @return The position of the line in the batch, starting at 1. Blank lines and comments are counted too. */
+    public int getLineNumber() {
+        return this.lineNumber;
+    }
+
+    public String getLine() {
+        return this.line;
+    }
+
+    public DispatchStatus getStatus() {
+        return this.status;
+    }
+
+    /** @return What the command threw if the status is {@link DispatchStatus#FAILED}, otherwise null. */
+    public Throwable getError() {
+        return this.error;
+    }
+
+    @Override
+    public String toString() {
+        return this.lineNumber + ": " + this.line + " -> " + this.status;
+    }
+}
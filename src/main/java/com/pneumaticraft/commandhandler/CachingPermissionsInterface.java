@@ -0,0 +1,217 @@
+package com.pneumaticraft.commandhandler;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.Plugin;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Wraps another {@link PermissionsInterface} and remembers its answers per sender, so listing or running commands
+ * doesn't ask the permission plugin the same question over and over.
+ *
+ * Every sender has a small LRU map of their own, so looking up an answer never waits on another sender. Senders are
+ * spread over a fixed number of segments, each an LRU map of its own, so finding a sender's map only waits on the few
+ * senders in the same segment. Answers are kept until the sender quits (see {@link #registerEvents(Plugin)}), until
+ * {@link #invalidate} or {@link #invalidateAll()} is called, or until they are the least recently used one of a full
+ * map. Call {@link #invalidateAll()} whenever permissions are recalculated, ie: after a permission plugin reload.
+ */
+public class CachingPermissionsInterface implements PermissionsInterface, Listener {
+    private static final int SINGLE = 0;
+    private static final int ANY = 1;
+    private static final int ALL = 2;
+    private static final int SEGMENTS = 16;
+    // Senders that never quit, ie: command blocks, would otherwise pile up.
+    private static final int MAX_SENDERS_PER_SEGMENT = 256;
+
+    private PermissionsInterface delegate;
+    private final int maxEntries;
+    private final LruMap<Object, LruMap<CacheKey, Boolean>>[] segments;
+
+    public CachingPermissionsInterface(PermissionsInterface delegate) {
+        this(delegate, 256);
+    }
+
+    /**
+     * @param delegate   The permissions interface that actually checks permissions.
+     * @param maxEntries How many answers to keep per sender before forgetting the least recently used one.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public CachingPermissionsInterface(PermissionsInterface delegate, int maxEntries) {
+        this.delegate = delegate;
+        this.maxEntries = maxEntries;
+        this.segments = new LruMap[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            this.segments[i] = new LruMap<Object, LruMap<CacheKey, Boolean>>(MAX_SENDERS_PER_SEGMENT);
+        }
+    }
+
+    /**
+     * Clears a sender's cached answers when they quit.
+     *
+     * @param plugin The plugin to register the listener for.
+     */
+    public void registerEvents(Plugin plugin) {
+        plugin.getServer().getPluginManager().registerEvents(this, plugin);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        this.invalidate(event.getPlayer());
+    }
+
+    public PermissionsInterface getDelegate() {
+        return this.delegate;
+    }
+
+    /**
+     * Forgets every cached answer for the given sender, ie: after their groups changed.
+     *
+     * @param sender The sender to forget.
+     */
+    public void invalidate(CommandSender sender) {
+        Object senderKey = CommandHandler.getSenderKey(sender);
+        LruMap<Object, LruMap<CacheKey, Boolean>> segment = this.segmentOf(senderKey);
+        synchronized (segment) {
+            segment.remove(senderKey);
+        }
+    }
+
+    /**
+     * Forgets every cached answer, ie: after the permission plugin recalculated permissions.
+     */
+    public void invalidateAll() {
+        for (LruMap<Object, LruMap<CacheKey, Boolean>> segment : this.segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public boolean hasPermission(CommandSender sender, String node, boolean isOpRequired) {
+        LruMap<CacheKey, Boolean> answers = this.answersOf(sender);
+        CacheKey key = new CacheKey(SINGLE, node, isOpRequired);
+        Boolean result;
+        synchronized (answers) {
+            result = answers.get(key);
+        }
+        if (result == null) {
+            // Asked outside the lock, as permission plugins may take a while.
+            result = this.delegate.hasPermission(sender, node, isOpRequired);
+            synchronized (answers) {
+                answers.put(key, result);
+            }
+        }
+        return result;
+    }
+
+    public boolean hasAnyPermission(CommandSender sender, List<String> allPermissionStrings, boolean opRequired) {
+        LruMap<CacheKey, Boolean> answers = this.answersOf(sender);
+        CacheKey key = new CacheKey(ANY, allPermissionStrings, opRequired);
+        Boolean result;
+        synchronized (answers) {
+            result = answers.get(key);
+        }
+        if (result == null) {
+            // Asked outside the lock, as permission plugins may take a while.
+            result = this.delegate.hasAnyPermission(sender, allPermissionStrings, opRequired);
+            synchronized (answers) {
+                answers.put(key.copyNodes(), result);
+            }
+        }
+        return result;
+    }
+
+    public boolean hasAllPermission(CommandSender sender, List<String> allPermissionStrings, boolean opRequired) {
+        LruMap<CacheKey, Boolean> answers = this.answersOf(sender);
+        CacheKey key = new CacheKey(ALL, allPermissionStrings, opRequired);
+        Boolean result;
+        synchronized (answers) {
+            result = answers.get(key);
+        }
+        if (result == null) {
+            // Asked outside the lock, as permission plugins may take a while.
+            result = this.delegate.hasAllPermission(sender, allPermissionStrings, opRequired);
+            synchronized (answers) {
+                answers.put(key.copyNodes(), result);
+            }
+        }
+        return result;
+    }
+
+    private LruMap<Object, LruMap<CacheKey, Boolean>> segmentOf(Object senderKey) {
+        int hash = senderKey.hashCode();
+        return this.segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    private LruMap<CacheKey, Boolean> answersOf(CommandSender sender) {
+        Object senderKey = CommandHandler.getSenderKey(sender);
+        LruMap<Object, LruMap<CacheKey, Boolean>> segment = this.segmentOf(senderKey);
+        synchronized (segment) {
+            LruMap<CacheKey, Boolean> answers = segment.get(senderKey);
+            if (answers == null) {
+                answers = new LruMap<CacheKey, Boolean>(this.maxEntries);
+                segment.put(senderKey, answers);
+            }
+            return answers;
+        }
+    }
+
+    /**
+     * A map that forgets its least recently used entry once it's full. Not thread safe; callers lock it.
+     */
+    private static class LruMap<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+        private final int maxSize;
+
+        private LruMap(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return this.size() > this.maxSize;
+        }
+    }
+
+    private static class CacheKey {
+        private int type;
+        private Object nodes;
+        private boolean opRequired;
+        private int hash;
+
+        private CacheKey(int type, Object nodes, boolean opRequired) {
+            this.type = type;
+            this.nodes = nodes;
+            this.opRequired = opRequired;
+            this.hash = 31 * (31 * type + nodes.hashCode()) + (opRequired ? 1 : 0);
+        }
+
+        /** The caller's list may change later, so the key that gets stored keeps its own copy. */
+        private CacheKey copyNodes() {
+            return new CacheKey(this.type, new ArrayList<Object>((List<?>) this.nodes), this.opRequired);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) o;
+            return this.hash == other.hash && this.type == other.type && this.opRequired == other.opRequired
+                    && this.nodes.equals(other.nodes);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+}
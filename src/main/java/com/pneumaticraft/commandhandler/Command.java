@@ -7,30 +7,60 @@ import org.bukkit.permissions.Permission;
 import org.bukkit.permissions.PermissionDefault;
 import org.bukkit.plugin.Plugin;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 public abstract class Command {
+    private static final int PLAYER_HELP = 0;
+    private static final int CONSOLE_HELP = 1;
+    private static final int HELP_SUMMARY = 2;
+
     protected Plugin plugin;
 
     private int minimumArgLength;
     private int maximumArgLength;
+    private volatile long cooldown;
+    private volatile Boolean audited;
+    private List<CommandInterceptor> interceptors;
+    private Set<Class<? extends CommandInterceptor>> skippedInterceptors;
+    private volatile ArgumentSchema argumentSchema;
 
     private String commandName;
     private String commandUsage;
 
-    private List<CommandKey> commandKeys;
-    private List<String> examples;
+    private volatile List<CommandKey> commandKeys;
+    private final ExampleList examples;
 
     private Permission permission;
     private List<Permission> auxPerms;
+    private List<Permission> stagedPerms;
+
+    private CopyOnWriteArrayList<CommandHandler> handlers;
+    private Map<Integer, ArgumentSuggester> suggesters;
+    private volatile CommandDescriptor descriptor;
+    private volatile String[] renderedHelp;
 
     public Command(Plugin plugin) {
         this.plugin = plugin;
-        this.auxPerms = new ArrayList<Permission>();
-        this.commandKeys = new ArrayList<CommandKey>();
-        this.examples = new ArrayList<String>();
+        this.auxPerms = new CopyOnWriteArrayList<Permission>();
+        this.stagedPerms = new ArrayList<Permission>();
+        this.commandKeys = Collections.emptyList();
+        this.examples = new ExampleList();
+        this.handlers = new CopyOnWriteArrayList<CommandHandler>();
+        this.suggesters = new ConcurrentHashMap<Integer, ArgumentSuggester>();
+        this.interceptors = new CopyOnWriteArrayList<CommandInterceptor>();
+        this.skippedInterceptors = new CopyOnWriteArraySet<Class<? extends CommandInterceptor>>();
     }
 
     public List<String> getKeyStrings() {
@@ -47,44 +77,203 @@ public abstract class Command {
 
     public abstract void runCommand(CommandSender sender, List<String> args);
 
+    /**
+     * Runs the command with args converted according to its {@link ArgumentSchema}. Only called for commands that
+     * have one; by default it hands the raw args to {@link #runCommand(CommandSender, List)}.
+     *
+     * @param sender The sender of the command.
+     * @param args   The converted args.
+     */
+    public void runCommand(CommandSender sender, CommandArguments args) {
+        this.runCommand(sender, args.getRawArgs());
+    }
+
+    /**
+     * Runs whichever runCommand fits, depending on whether the args were converted.
+     */
+    void invoke(CommandSender sender, List<String> args, CommandArguments arguments) {
+        if (arguments == null) {
+            this.runCommand(sender, args);
+        } else {
+            this.runCommand(sender, arguments);
+        }
+    }
+
+    /**
+     * Declares the parameters and flags this command takes. From then on the schema decides the command's arg range,
+     * and args are converted before {@link #runCommand(CommandSender, CommandArguments)} is called.
+     *
+     * @param schema The complete schema, or null to go back to plain string args. It can't be changed afterwards.
+     */
+    public synchronized void setArgumentSchema(ArgumentSchema schema) {
+        if (schema != null) {
+            // The descriptor bakes in the schema's arg range, so it must stay as it is.
+            schema.freeze();
+        }
+        this.argumentSchema = schema;
+        this.descriptor = null;
+    }
+
+    public ArgumentSchema getArgumentSchema() {
+        return this.argumentSchema;
+    }
+
+    /**
+     * Override this to return true if {@link #runCommand(CommandSender, List)} is safe to run off the server thread,
+     * ie: commands that read files or list a lot of worlds. Bukkit API calls from such a command have to go through
+     * {@link #callSync(Callable)} or {@link #runSync(Runnable)}.
+     *
+     * @return True if this command may be run asynchronously.
+     */
+    public boolean isAsync() {
+        return false;
+    }
+
+    /**
+     * Called on the server thread after an async run of this command finished. By default only failures are reported
+     * to the sender.
+     *
+     * @param sender The sender of the command.
+     * @param args   The args the command ran with.
+     * @param error  What the command threw, or null if it finished normally.
+     */
+    public void asyncCompleted(CommandSender sender, List<String> args, Throwable error) {
+        if (error != null) {
+            sender.sendMessage(ChatColor.RED + "Something went wrong while running " + this.getCommandName() + ". Check the server log for details.");
+        }
+    }
+
+    /**
+     * Sets what is suggested for the given argument when a sender presses tab.
+     *
+     * @param index     The index of the argument, not counting the key. 0 is the first one.
+     * @param suggester The suggester, or null to remove it.
+     */
+    public void setArgumentSuggester(int index, ArgumentSuggester suggester) {
+        if (suggester == null) {
+            this.suggesters.remove(index);
+        } else {
+            this.suggesters.put(index, suggester);
+        }
+    }
+
+    /**
+     * Suggests values for the argument being typed. By default this asks the {@link ArgumentSuggester} set for that
+     * argument; override it for completions that don't fit one suggester per argument.
+     *
+     * @param sender       The sender pressing tab.
+     * @param previousArgs The complete args before the one being typed, without the key.
+     * @param prefix       What has been typed of the current arg so far. May be empty.
+     *
+     * @return The suggestions starting with the prefix, never null.
+     */
+    public List<String> getSuggestions(CommandSender sender, List<String> previousArgs, String prefix) {
+        List<String> suggestions = new ArrayList<String>();
+        ArgumentSuggester suggester = this.suggesters.get(previousArgs.size());
+        if (suggester == null) {
+            return suggestions;
+        }
+        String lowerPrefix = prefix.toLowerCase();
+        for (String suggestion : suggester.suggest(sender, previousArgs, prefix)) {
+            if (suggestion.toLowerCase().startsWith(lowerPrefix)) {
+                suggestions.add(suggestion);
+            }
+        }
+        return suggestions;
+    }
+
+    /**
+     * Runs the given task on the server thread, right away if we're already on it.
+     *
+     * @param task The task, typically calling the Bukkit API.
+     *
+     * @return A future holding the task's result.
+     */
+    protected <T> Future<T> callSync(Callable<T> task) {
+        if (this.plugin.getServer().isPrimaryThread()) {
+            FutureTask<T> future = new FutureTask<T>(task);
+            future.run();
+            return future;
+        }
+        return this.plugin.getServer().getScheduler().callSyncMethod(this.plugin, task);
+    }
+
+    /**
+     * Runs the given task on the server thread without waiting for it, right away if we're already on it.
+     *
+     * @param task The task, typically calling the Bukkit API.
+     */
+    protected void runSync(Runnable task) {
+        if (this.plugin.getServer().isPrimaryThread()) {
+            task.run();
+        } else {
+            this.plugin.getServer().getScheduler().runTask(this.plugin, task);
+        }
+    }
+
+    /**
+     * Returns the frozen view of this command that dispatching reads from. It is rebuilt the next time it's asked for
+     * after keys, permissions or the arg range change.
+     *
+     * @return The current descriptor.
+     */
+    public CommandDescriptor getDescriptor() {
+        CommandDescriptor current = this.descriptor;
+        if (current == null) {
+            // Built under the same lock the setters take, so a snapshot never mixes old and new values, and a setter
+            // can't be undone by a snapshot that was built just before it.
+            synchronized (this) {
+                current = this.descriptor;
+                if (current == null) {
+                    List<String> permStrings = this.permission == null ? new ArrayList<String>() : this.getAllPermissionStrings();
+                    current = new CommandDescriptor(this.commandKeys, permStrings, this.permission != null && this.isOpRequired(),
+                            this.minimumArgLength, this.maximumArgLength, this.argumentSchema);
+                    this.descriptor = current;
+                }
+            }
+        }
+        return current;
+    }
+
     public boolean checkArgLength(List<String> args) {
-        return (this.minimumArgLength == -1 || this.minimumArgLength <= args.size())
-                && (args.size() <= this.maximumArgLength || this.maximumArgLength == -1);
+        return this.getDescriptor().checkArgLength(args);
     }
 
     private String getArgsString(List<String> args) {
-        String returnString = "";
-        for (String s : args) {
-            returnString += s + " ";
-        }
-        if (returnString.length() > 0) {
-            return returnString.substring(0, returnString.length() - 1);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < args.size(); i++) {
+            if (i > 0) {
+                builder.append(' ');
+            }
+            builder.append(args.get(i));
         }
-        return "";
+        return builder.toString();
     }
 
     /**
      * This method is provided as a convenience to add additional permissions recursively to all nodes
      *
      * @param otherPerm The Permission to add.
+     * @see #setPermission(Permission)
      */
     public void addAdditonalPermission(Permission otherPerm) {
-        if (this.plugin.getServer().getPluginManager().getPermission(otherPerm.getName()) == null) {
-            this.plugin.getServer().getPluginManager().addPermission(otherPerm);
-            this.addToParentPerms(otherPerm.getName());
+        synchronized (this) {
+            this.auxPerms.add(otherPerm);
+            this.descriptor = null;
+            this.renderedHelp = null;
         }
-        this.auxPerms.add(otherPerm);
+        this.stagePermission(otherPerm);
     }
 
     public CommandKey getKey(List<String> parsedArgs) {
-        // Combines our args to a space separated string
-        String argsString = this.getArgsString(parsedArgs);
+        // Regex keys need our args as a space separated string, literal keys compare tokens directly
+        String argsString = null;
 
         for (CommandKey ck : this.commandKeys) {
-            String identifier = ck.getKey().toLowerCase();
-
-            // If we match AND we match the number of args.
-            if (argsString.matches(identifier + "(\\s+.*|\\s*)")) {
+            if (ck.isRegex() && argsString == null) {
+                argsString = this.getArgsString(parsedArgs);
+            }
+            if (ck.matches(parsedArgs, argsString)) {
                 return ck;
             }
         }
@@ -101,6 +290,22 @@ public abstract class Command {
         return args;
     }
 
+    /**
+     * Returns the args that are left once the given key has been taken off the front.
+     *
+     * @param args The tokenized args, which are left untouched.
+     * @param key  The key that matched.
+     *
+     * @return A new list of the remaining args.
+     */
+    public List<String> removeKeyArgs(TokenizedArgs args, CommandKey key) {
+        return args.toList(Math.min(key.getTokenCount(), args.size()));
+    }
+
+    public int getNumKeyArgs(CommandKey key) {
+        return key.getTokenCount();
+    }
+
     public int getNumKeyArgs(String key) {
         int identifierLength = key.split(" ").length;
         return identifierLength;
@@ -118,74 +323,49 @@ public abstract class Command {
         this.setPermission(new Permission(p, desc, defaultPerm));
     }
 
+    /**
+     * Sets the permission needed to run this command. Like any additional permissions, it is not added to Bukkit right
+     * away but staged, together with its wildcard parents, until a {@link CommandHandler} this command is registered
+     * with commits its permissions. See {@link CommandHandler#commitPermissions()}.
+     *
+     * @param perm The permission.
+     */
     public void setPermission(Permission perm) {
-        this.permission = perm;
-        try {
-            this.plugin.getServer().getPluginManager().addPermission(this.permission);
-            this.addToParentPerms(this.permission.getName());
-        } catch (IllegalArgumentException e) {
+        synchronized (this) {
+            this.permission = perm;
+            this.descriptor = null;
+            this.renderedHelp = null;
         }
+        this.stagePermission(perm);
     }
 
-    private void addToParentPerms(String permString) {
-        String permStringChopped = permString.replace(".*", "");
-
-        String[] seperated = permStringChopped.split("\\.");
-        String parentPermString = getParentPerm(seperated);
-        if (parentPermString == null) {
-            // This is bad form in the bukkit permission environment.
-            //addToRootPermission("*", permStringChopped);
-            //addToRootPermission("*.*", permStringChopped);
-            return;
-        }
-        Permission parentPermission = this.plugin.getServer().getPluginManager().getPermission(parentPermString);
-        // Create parent and grandparents
-        if (parentPermission == null) {
-            parentPermission = new Permission(parentPermString);
-            this.plugin.getServer().getPluginManager().addPermission(parentPermission);
-
-            this.addToParentPerms(parentPermString);
+    private void stagePermission(Permission perm) {
+        synchronized (this) {
+            this.stagedPerms.add(perm);
         }
-        // Create actual perm.
-        Permission actualPermission = this.plugin.getServer().getPluginManager().getPermission(permString);
-        // Extra check just to make sure the actual one is added
-        if (actualPermission == null) {
-
-            actualPermission = new Permission(permString);
-            this.plugin.getServer().getPluginManager().addPermission(actualPermission);
-        }
-        if (!parentPermission.getChildren().containsKey(permString)) {
-            parentPermission.getChildren().put(actualPermission.getName(), true);
-            this.plugin.getServer().getPluginManager().recalculatePermissionDefaults(parentPermission);
+        for (CommandHandler handler : this.handlers) {
+            handler.permissionsStaged();
         }
     }
 
-    private void addToRootPermission(String rootPerm, String permStringChopped) {
-        Permission rootPermission = this.plugin.getServer().getPluginManager().getPermission(rootPerm);
-        if (rootPermission == null) {
-            rootPermission = new Permission(rootPerm);
-            this.plugin.getServer().getPluginManager().addPermission(rootPermission);
-        }
-        rootPermission.getChildren().put(permStringChopped + ".*", true);
-        this.plugin.getServer().getPluginManager().recalculatePermissionDefaults(rootPermission);
-    }
-
     /**
-     * If the given permission was 'multiverse.core.tp.self', this would return 'multiverse.core.tp.*'.
-     *
-     * @param seperated
+     * Moves the permissions that were set since the last call into the given tree.
      *
-     * @return
+     * @param tree The tree that is about to be committed.
      */
-    private String getParentPerm(String[] seperated) {
-        if (seperated.length == 1) {
-            return null;
+    void stagePermissions(PermissionTree tree) {
+        synchronized (this) {
+            for (Permission perm : this.stagedPerms) {
+                tree.stage(perm);
+            }
+            this.stagedPerms.clear();
         }
-        String returnString = "";
-        for (int i = 0; i < seperated.length - 1; i++) {
-            returnString += seperated[i] + ".";
+    }
+
+    boolean hasStagedPermissions() {
+        synchronized (this) {
+            return !this.stagedPerms.isEmpty();
         }
-        return returnString + "*";
     }
 
     public boolean isOpRequired() {
@@ -200,6 +380,10 @@ public abstract class Command {
         return this.permission.getDescription();
     }
 
+    /**
+     * @return The examples shown in this command's help. The list may be changed, from any thread, and the help
+     *         follows along.
+     */
     public List<String> getCommandExamples() {
         return this.examples;
     }
@@ -212,27 +396,233 @@ public abstract class Command {
         this.examples.add(example);
     }
 
-    public void setCommandUsage(String usage) {
+    public synchronized void setCommandUsage(String usage) {
         this.commandUsage = usage;
+        this.renderedHelp = null;
     }
 
-    public void setArgRange(int min, int max) {
+    public synchronized void setArgRange(int min, int max) {
         this.minimumArgLength = min;
         this.maximumArgLength = max;
+        this.descriptor = null;
+    }
+
+    /**
+     * Makes each sender wait before they can run this command again. Senders with the handler's rate limit bypass
+     * permission are exempt, see {@link CommandHandler#setRateLimitBypassPermission(String)}.
+     *
+     * @param millis The cooldown in milliseconds, or 0 for none.
+     */
+    public void setCooldown(long millis) {
+        this.cooldown = Math.max(0, millis);
+    }
+
+    /** @return The cooldown in milliseconds, 0 if there is none. */
+    public long getCooldown() {
+        return this.cooldown;
+    }
+
+    /**
+     * @param audited Whether to write every use of this command to the handler's {@link AuditLog}.
+     */
+    public void setAudited(boolean audited) {
+        this.audited = audited;
+    }
+
+    /**
+     * @param interceptor An interceptor for this command only. It runs after those of the handler.
+     */
+    public void addInterceptor(CommandInterceptor interceptor) {
+        this.interceptors.add(interceptor);
+        this.interceptorsChanged();
+    }
+
+    /**
+     * Opts this command out of the handler's interceptors of the given type, ie: a logging interceptor for a command
+     * that is run every tick.
+     *
+     * @param type The type of interceptor to skip, subclasses included.
+     */
+    public void skipInterceptor(Class<? extends CommandInterceptor> type) {
+        this.skippedInterceptors.add(type);
+        this.interceptorsChanged();
+    }
+
+    /** @return The interceptors that were added to this command only. */
+    public List<CommandInterceptor> getInterceptors() {
+        return Collections.unmodifiableList(this.interceptors);
+    }
+
+    /** @return Whether this command opted out of the given interceptor, see {@link #skipInterceptor(Class)}. */
+    public boolean skipsInterceptor(CommandInterceptor interceptor) {
+        for (Class<? extends CommandInterceptor> type : this.skippedInterceptors) {
+            if (type.isInstance(interceptor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void interceptorsChanged() {
+        for (CommandHandler handler : this.handlers) {
+            handler.interceptorsChanged(this);
+        }
+    }
+
+    /** @return Whether uses of this command are audited. By default only commands that are meant for ops are. */
+    public boolean isAudited() {
+        Boolean audited = this.audited;
+        if (audited != null) {
+            return audited;
+        }
+        return this.permission != null && this.isOpRequired();
     }
 
-    public void setName(String name) {
+    public synchronized void setName(String name) {
         this.commandName = name;
+        this.renderedHelp = null;
     }
 
+    /**
+     * Adds a key that is matched literally, token by token, ie: "mv list". Keys used to be regular expressions, so a
+     * key that contains regex characters, ie: "mv(tp|teleport)", is still matched as one, with a warning to add it
+     * with {@link #addRegexKey(String)} instead.
+     *
+     * @param key The key.
+     */
     public void addKey(String key) {
-        this.commandKeys.add(new CommandKey(key, this));
-        Collections.sort(this.commandKeys, new ReverseLengthSorter());
+        this.addKey(this.plainKey(key, null, null));
     }
 
     public void addKey(String key, int minArgs, int maxArgs) {
-        this.commandKeys.add(new CommandKey(key, this, minArgs, maxArgs));
-        Collections.sort(this.commandKeys, new ReverseLengthSorter());
+        this.addKey(this.plainKey(key, minArgs, maxArgs));
+    }
+
+    /**
+     * Adds a key that is matched as a regular expression against the start of the args, ie: "mv (tp|teleport)".
+     * Plain keys added with {@link #addKey(String)} are matched literally.
+     *
+     * @param key The regular expression.
+     */
+    public void addRegexKey(String key) {
+        this.addKey(new CommandKey(key, this, true));
+    }
+
+    public void addRegexKey(String key, int minArgs, int maxArgs) {
+        this.addKey(new CommandKey(key, this, true, minArgs, maxArgs));
+    }
+
+    /**
+     * Adds several plain keys at once, sorting the keys only once.
+     *
+     * @param keys The keys, ie: "mv list", "mvlist" and "mvl".
+     */
+    public void addKeys(String... keys) {
+        List<CommandKey> added = new ArrayList<CommandKey>(keys.length);
+        for (String key : keys) {
+            added.add(this.plainKey(key, null, null));
+        }
+        this.addKeys(added);
+    }
+
+    private CommandKey plainKey(String key, Integer minArgs, Integer maxArgs) {
+        if (!CommandKey.looksLikeRegex(key)) {
+            return minArgs == null ? new CommandKey(key, this) : new CommandKey(key, this, minArgs, maxArgs);
+        }
+        if (this.plugin != null) {
+            this.plugin.getLogger().warning("The key '" + key + "' of " + this.getCommandName() + " looks like a regular"
+                    + " expression, so it is matched as one. Add it with addRegexKey instead to silence this warning.");
+        }
+        CommandKey regexKey = minArgs == null ? new CommandKey(key, this, true) : new CommandKey(key, this, true, minArgs, maxArgs);
+        regexKey.setGuessedRegex();
+        return regexKey;
+    }
+
+    private void addKey(CommandKey key) {
+        this.addKeys(Collections.singletonList(key));
+    }
+
+    private void addKeys(List<CommandKey> added) {
+        synchronized (this) {
+            // Readers may be dispatching from other threads, so the sorted list is swapped in as a whole.
+            List<CommandKey> keys = new ArrayList<CommandKey>(this.commandKeys);
+            keys.addAll(added);
+            Collections.sort(keys, new ReverseLengthSorter());
+            this.commandKeys = Collections.unmodifiableList(keys);
+            this.descriptor = null;
+            this.renderedHelp = null;
+        }
+        for (CommandHandler handler : this.handlers) {
+            for (CommandKey key : added) {
+                handler.keyAdded(key);
+            }
+        }
+    }
+
+    /**
+     * Replaces the plain keys of this command, ie: when its aliases are reloaded from a config file. Its regex keys
+     * ({@link #addRegexKey(String)}) are kept. Handlers it is registered with swap the old keys for the new ones
+     * without blocking commands that are being dispatched.
+     *
+     * @param keys The new plain keys, ie: "mv list", "mvlist" and "mvl".
+     */
+    public void setKeys(List<String> keys) {
+        this.setKeys(keys, null);
+    }
+
+    /**
+     * Replaces the plain and regex keys of this command.
+     *
+     * @param keys      The new plain keys, or null to keep the current ones.
+     * @param regexKeys The new regex keys, ie: "mv (tp|teleport)", or null to keep the current ones.
+     *
+     * @see #setKeys(List)
+     */
+    public void setKeys(List<String> keys, List<String> regexKeys) {
+        List<CommandKey> old;
+        synchronized (this) {
+            old = this.commandKeys;
+            List<CommandKey> replaced = new ArrayList<CommandKey>();
+            for (CommandKey key : old) {
+                // Kept as they are, along with their own arg ranges.
+                if ((key.isRegex() && !key.isGuessedRegex() ? regexKeys : keys) == null) {
+                    replaced.add(key);
+                }
+            }
+            if (keys != null) {
+                for (String key : keys) {
+                    replaced.add(this.plainKey(key, null, null));
+                }
+            }
+            if (regexKeys != null) {
+                for (String key : regexKeys) {
+                    replaced.add(new CommandKey(key, this, true));
+                }
+            }
+            Collections.sort(replaced, new ReverseLengthSorter());
+            this.commandKeys = Collections.unmodifiableList(replaced);
+            this.descriptor = null;
+            this.renderedHelp = null;
+        }
+        for (CommandHandler handler : this.handlers) {
+            handler.keysReplaced(this, old);
+        }
+    }
+
+    /**
+     * Lets the given handler know about keys added after this command was registered with it.
+     *
+     * @param handler The handler this command was registered with.
+     */
+    void addHandler(CommandHandler handler) {
+        this.handlers.addIfAbsent(handler);
+    }
+
+    /**
+     * Stops telling the given handler about changes, once this command was unregistered from it.
+     */
+    void removeHandler(CommandHandler handler) {
+        this.handlers.remove(handler);
     }
 
     /** @return the plugin */
@@ -256,28 +646,130 @@ public abstract class Command {
         }
         return permStrings;
     }
+    /**
+     * Sends the help for this command as one multi-line message. Players see the first 4 examples, everyone else sees
+     * all of them.
+     *
+     * @param sender The sender to send the help to.
+     */
     public void showHelp(CommandSender sender) {
-            sender.sendMessage(ChatColor.AQUA + "--- " + this.getCommandName() + " ---");
-            sender.sendMessage(ChatColor.YELLOW + this.getCommandDesc());
-            sender.sendMessage(ChatColor.DARK_AQUA + this.getCommandUsage());
-            sender.sendMessage("Permission: " + ChatColor.GREEN + this.getPermissionString());
-            String keys = "";
-            for (String key : this.getKeyStrings()) {
-                keys += key + ", ";
-            }
-            keys = keys.substring(0, keys.length() - 2);
-            sender.sendMessage(ChatColor.BLUE + "Aliases: " + ChatColor.RED + keys);
-            if (this.getCommandExamples().size() > 0) {
-                sender.sendMessage(ChatColor.LIGHT_PURPLE + "Examples:");
-                if (sender instanceof Player) {
-                    for (int i = 0; i < 4 && i < this.getCommandExamples().size(); i++) {
-                        sender.sendMessage(this.getCommandExamples().get(i));
-                    }
-                } else {
-                    for (String c : this.getCommandExamples()) {
-                        sender.sendMessage(c);
-                    }
+        sender.sendMessage(this.getHelp(sender));
+    }
+
+    /**
+     * @param sender The sender the help is for.
+     *
+     * @return The help for this command as lines separated by '\n', the way {@link #showHelp(CommandSender)} sends it.
+     */
+    public String getHelp(CommandSender sender) {
+        return this.getRenderedHelp()[sender instanceof Player ? PLAYER_HELP : CONSOLE_HELP];
+    }
+
+    /**
+     * @return A single line with this command's usage and description, as listed in
+     *         {@link CommandHandler#showHelpPage(CommandSender, int)}.
+     */
+    public String getHelpSummary() {
+        return this.getRenderedHelp()[HELP_SUMMARY];
+    }
+
+    private String[] getRenderedHelp() {
+        String[] rendered = this.renderedHelp;
+        if (rendered == null) {
+            // Rendered on first use after a change, under the lock the setters take like the descriptor, so help
+            // rendered from old values can't be cached after a setter cleared it.
+            synchronized (this) {
+                rendered = this.renderedHelp;
+                if (rendered == null) {
+                    rendered = new String[3];
+                    rendered[PLAYER_HELP] = this.renderHelp(4);
+                    rendered[CONSOLE_HELP] = this.renderHelp(Integer.MAX_VALUE);
+                    String desc = this.permission == null ? null : this.getCommandDesc();
+                    rendered[HELP_SUMMARY] = ChatColor.AQUA + this.getCommandUsage()
+                            + (desc == null || desc.length() == 0 ? "" : ChatColor.WHITE + " - " + desc);
+                    this.renderedHelp = rendered;
                 }
             }
         }
+        return rendered;
+    }
+
+    private String renderHelp(int maxExamples) {
+        StringBuilder help = new StringBuilder();
+        help.append(ChatColor.AQUA).append("--- ").append(this.getCommandName()).append(" ---");
+        if (this.permission != null) {
+            help.append('\n').append(ChatColor.YELLOW).append(this.getCommandDesc());
+        }
+        help.append('\n').append(ChatColor.DARK_AQUA).append(this.getCommandUsage());
+        if (this.permission != null) {
+            help.append('\n').append("Permission: ").append(ChatColor.GREEN).append(this.getPermissionString());
+        }
+        help.append('\n').append(ChatColor.BLUE).append("Aliases: ").append(ChatColor.RED);
+        List<CommandKey> keys = this.commandKeys;
+        for (int i = 0; i < keys.size(); i++) {
+            if (i > 0) {
+                help.append(", ");
+            }
+            help.append(keys.get(i).getKey());
+        }
+        // A snapshot, so examples changed meanwhile can't make it skip or repeat one.
+        Iterator<String> examples = this.examples.snapshot();
+        if (examples.hasNext()) {
+            help.append('\n').append(ChatColor.LIGHT_PURPLE).append("Examples:");
+            for (int i = 0; i < maxExamples && examples.hasNext(); i++) {
+                help.append('\n').append(examples.next());
+            }
+        }
+        return help.toString();
+    }
+
+    /**
+     * The examples, which plugins have always been able to change through {@link #getCommandExamples()}. Every change
+     * drops the rendered help, under the lock it is rendered with, so help rendered from the old examples can't be
+     * cached afterwards.
+     */
+    private class ExampleList extends AbstractList<String> {
+        private final CopyOnWriteArrayList<String> items = new CopyOnWriteArrayList<String>();
+
+        @Override
+        public String get(int index) {
+            return this.items.get(index);
+        }
+
+        @Override
+        public int size() {
+            return this.items.size();
+        }
+
+        /** @return An iterator over the examples as they are now, which can't change the list. */
+        private Iterator<String> snapshot() {
+            return this.items.iterator();
+        }
+
+        @Override
+        public void add(int index, String example) {
+            this.items.add(index, example);
+            this.changed();
+        }
+
+        @Override
+        public String set(int index, String example) {
+            String old = this.items.set(index, example);
+            this.changed();
+            return old;
+        }
+
+        @Override
+        public String remove(int index) {
+            String old = this.items.remove(index);
+            this.changed();
+            return old;
+        }
+
+        private void changed() {
+            synchronized (Command.this) {
+                Command.this.renderedHelp = null;
+            }
+        }
+    }
 }
@@ -0,0 +1,82 @@
+package com.pneumaticraft.commandhandler;
+
+import java.util.List;
+
+/**
+ * The args of one command run, converted according to the command's {@link ArgumentSchema}. Parameters and flags are
+ * looked up through the schema's index, so every lookup is a single map access.
+ */
+public class CommandArguments {
+    private final ArgumentSchema schema;
+    private final List<String> rawArgs;
+    private final Object[] values;
+    private final int size;
+    private final Object[] flags;
+
+    CommandArguments(ArgumentSchema schema, List<String> rawArgs, Object[] values, int size, Object[] flags) {
+        this.schema = schema;
+        this.rawArgs = rawArgs;
+        this.values = values;
+        this.size = size;
+        this.flags = flags;
+    }
+
+    /** @return The args as typed, after the command's key. */
+    public List<String> getRawArgs() {
+        return this.rawArgs;
+    }
+
+    /** @return How many parameters were given. */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @param index The position of the parameter.
+     *
+     * @return Its converted value, or null if it's an optional parameter that was left out.
+     */
+    public Object get(int index) {
+        return this.values[index];
+    }
+
+    /**
+     * @param name The name of the parameter.
+     *
+     * @return Its converted value, or null if it's an optional parameter that was left out.
+     *
+     * @throws IllegalArgumentException If the schema has no such parameter.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String name) {
+        return (T) this.values[this.schema.indexOfParameter(name)];
+    }
+
+    /** @return Whether the named parameter was given. */
+    public boolean has(String name) {
+        return this.values[this.schema.indexOfParameter(name)] != null;
+    }
+
+    /**
+     * @param flag The flag, ie: "-s".
+     *
+     * @return Whether the flag was given.
+     *
+     * @throws IllegalArgumentException If the schema has no such flag.
+     */
+    public boolean hasFlag(String flag) {
+        return this.flags[this.schema.indexOfFlag(flag)] != null;
+    }
+
+    /**
+     * @param flag The flag, ie: "-g".
+     *
+     * @return The flag's converted value, Boolean.TRUE for a flag without value, or null if it wasn't given.
+     *
+     * @throws IllegalArgumentException If the schema has no such flag.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getFlag(String flag) {
+        return (T) this.flags[this.schema.indexOfFlag(flag)];
+    }
+}
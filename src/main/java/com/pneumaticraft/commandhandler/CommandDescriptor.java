@@ -0,0 +1,78 @@
+package com.pneumaticraft.commandhandler;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable snapshot of everything the dispatcher needs to know about a {@link Command}. It is built the first
+ * time it's needed after the command was configured, so dispatching a command reads plain fields instead of
+ * recomputing lists on every call. Keys keep their own tokens, split once when they were created.
+ */
+public final class CommandDescriptor {
+    private final CommandKey[] keys;
+    private final String[] permissionStrings;
+    private final List<String> permissionList;
+    private final boolean opRequired;
+    private final int minArgs;
+    private final int maxArgs;
+    private final ArgumentSchema argumentSchema;
+
+    CommandDescriptor(List<CommandKey> keys, List<String> permissionStrings, boolean opRequired, int minArgs, int maxArgs,
+                      ArgumentSchema argumentSchema) {
+        this.keys = keys.toArray(new CommandKey[keys.size()]);
+        this.permissionStrings = permissionStrings.toArray(new String[permissionStrings.size()]);
+        this.permissionList = Collections.unmodifiableList(Arrays.asList(this.permissionStrings.clone()));
+        this.opRequired = opRequired;
+        this.argumentSchema = argumentSchema;
+        // A schema knows best how many args the command takes.
+        this.minArgs = argumentSchema == null ? minArgs : argumentSchema.getMinArgs();
+        this.maxArgs = argumentSchema == null ? maxArgs : argumentSchema.getMaxArgs();
+    }
+
+    /** @return The command's keys, longest first. The array is shared, so it must not be modified. */
+    public CommandKey[] getKeys() {
+        return this.keys;
+    }
+
+    /** @return The primary permission followed by any additional ones. The array is shared. */
+    public String[] getPermissionStrings() {
+        return this.permissionStrings;
+    }
+
+    /** @return The same permissions as an unmodifiable list, ready to hand to a {@link PermissionsInterface}. */
+    public List<String> getPermissionList() {
+        return this.permissionList;
+    }
+
+    public boolean isOpRequired() {
+        return this.opRequired;
+    }
+
+    public int getMinArgs() {
+        return this.minArgs;
+    }
+
+    public int getMaxArgs() {
+        return this.maxArgs;
+    }
+
+    /** @return The command's schema, or null if it takes plain string args. */
+    public ArgumentSchema getArgumentSchema() {
+        return this.argumentSchema;
+    }
+
+    public boolean checkArgLength(int args) {
+        return (this.minArgs == -1 || this.minArgs <= args)
+                && (args <= this.maxArgs || this.maxArgs == -1);
+    }
+
+    /**
+     * @param args The args after the command's key.
+     *
+     * @return Whether the command accepts them, counting flags separately if it has a schema.
+     */
+    public boolean checkArgLength(List<String> args) {
+        return this.argumentSchema == null ? this.checkArgLength(args.size()) : this.argumentSchema.checkArgLength(args);
+    }
+}
@@ -1,46 +1,135 @@
 package com.pneumaticraft.commandhandler;
 
-import com.lithium3141.shellparser.ShellParser;
 import org.bukkit.ChatColor;
 import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.command.ConsoleCommandSender;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.permissions.Permission;
+import org.bukkit.permissions.PermissionDefault;
+import org.bukkit.plugin.IllegalPluginAccessException;
 import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.ServicePriority;
+import org.bukkit.plugin.ServicesManager;
+import org.bukkit.scheduler.BukkitTask;
 
-import java.io.FileNotFoundException;
+import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
+import java.util.regex.Pattern;
 
 public class CommandHandler {
 
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final int HELP_PAGE_SIZE = 8;
+    private static final int MAX_SUGGESTIONS = 3;
+    private static final int MAX_SUGGESTION_VISITS = 256;
+
     protected Plugin plugin;
 
-    protected List<QueuedCommand> queuedCommands;
+    // Sender key -> token -> the commands they have yet to confirm.
+    protected ConcurrentMap<Object, ConcurrentMap<String, QueuedCommand>> queuedCommands;
+    private final AtomicLong queuedCommandCount = new AtomicLong();
+    private volatile String confirmCommand = "mvconfirm";
     protected List<Command> allCommands;
+    private volatile CommandKeyTrie keyTrie;
+    private volatile boolean permissionsStaged;
+    private final AtomicBoolean commitScheduled = new AtomicBoolean();
+    private volatile FuzzyKeyIndex fuzzyIndex;
+    private volatile boolean suggestOnMiss;
+    private volatile int suggestionDistance = 2;
+    private final Object registryLock = new Object();
+    // The position each command was registered at, which decides ties in the key trie. Guarded by the registry lock.
+    private final Map<Command, Integer> registrationOrder = new IdentityHashMap<Command, Integer>();
+    private int nextOrder;
+    private ThreadLocal<TokenizedArgs> tokenizedArgs = new ThreadLocal<TokenizedArgs>() {
+        @Override
+        protected TokenizedArgs initialValue() {
+            return new TokenizedArgs();
+        }
+    };
+    private ThreadLocal<DispatchResult> dispatchResult = new ThreadLocal<DispatchResult>() {
+        @Override
+        protected DispatchResult initialValue() {
+            return new DispatchResult();
+        }
+    };
 
     protected PermissionsInterface permissions;
-    private Properties props = new Properties();
+    private volatile AsyncCommandExecutor asyncExecutor;
+    private int maxAsyncCommands = 4;
+    private volatile DispatchMetrics metrics;
+    private final RateLimiter rateLimiter = new RateLimiter();
+    private final AtomicBoolean rateLimiterListening = new AtomicBoolean();
+    private final ArgumentConverters argumentConverters;
+    private volatile String rateLimitBypassPermission;
+    private BukkitTask metricsDumpTask;
+    private volatile SharedCommandDispatcher sharedDispatcher;
+    private volatile AuditLog auditLog;
+    private final List<CommandInterceptor> interceptors = new CopyOnWriteArrayList<CommandInterceptor>();
+    // Each command's interceptors, flattened whenever commands or interceptors change. Commands without any are left out.
+    private volatile Map<Command, CommandInterceptor[]> compiledInterceptors = Collections.emptyMap();
     private double version;
 
+    // Read once, however many handlers are created.
+    private static final Properties PROPS = new Properties();
+    private static final boolean PROPS_LOADED = loadProperties();
+
     public CommandHandler(Plugin plugin, PermissionsInterface permissions) {
-        try {
-            props.load(this.getClass().getResourceAsStream("/commandhandler.properties"));
-            version = Integer.parseInt(props.getProperty("version", "-1"));
-        } catch (NumberFormatException e) {
-            this.logBadCH(plugin);
-        } catch (FileNotFoundException e) {
-            this.logBadCH(plugin);
-        } catch (IOException e) {
+        if (PROPS_LOADED) {
+            try {
+                version = Integer.parseInt(PROPS.getProperty("version", "-1"));
+            } catch (NumberFormatException e) {
+                this.logBadCH(plugin);
+            }
+        } else {
             this.logBadCH(plugin);
         }
         this.plugin = plugin;
 
-        this.allCommands = new ArrayList<Command>();
-        this.queuedCommands = new ArrayList<QueuedCommand>();
+        this.allCommands = new CopyOnWriteArrayList<Command>();
+        this.keyTrie = new CommandKeyTrie();
+        this.queuedCommands = new ConcurrentHashMap<Object, ConcurrentMap<String, QueuedCommand>>();
         this.permissions = permissions;
+        this.argumentConverters = new ArgumentConverters(plugin);
+    }
+
+    private static boolean loadProperties() {
+        InputStream in = CommandHandler.class.getResourceAsStream("/commandhandler.properties");
+        if (in == null) {
+            return false;
+        }
+        try {
+            PROPS.load(in);
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+            }
+        }
     }
 
     private void logBadCH(Plugin plugin) {
@@ -53,16 +142,93 @@ public class CommandHandler {
         return this.version;
     }
 
+    public Plugin getPlugin() {
+        return this.plugin;
+    }
+
+    /**
+     * Adds this handler's commands to the {@link SharedCommandDispatcher} all plugins on the server can share, creating
+     * and registering it with the ServicesManager if no plugin did yet. Commands registered later are added as well.
+     * Call {@link #shutdown()} when the plugin is disabled, so its commands are removed again.
+     *
+     * @return False if the shared dispatcher is older than this CommandHandler, in which case this handler keeps to
+     *         itself.
+     *
+     * @throws IllegalStateException If another handler joined under the same plugin name.
+     */
+    public boolean joinSharedDispatcher() {
+        ServicesManager services = this.plugin.getServer().getServicesManager();
+        synchronized (SharedCommandDispatcher.class) {
+            SharedCommandDispatcher shared = services.load(SharedCommandDispatcher.class);
+            if (shared == null) {
+                shared = new SharedCommandDispatcher(this.getVersion());
+                services.register(SharedCommandDispatcher.class, shared, this.plugin, ServicePriority.Normal);
+            } else if (shared.getVersion() < this.getVersion()) {
+                this.plugin.getLogger().info(String.format("Not sharing commands: the shared dispatcher is version %s, this plugin has %s.",
+                        shared.getVersion(), this.getVersion()));
+                return false;
+            }
+            synchronized (this.registryLock) {
+                shared.join(this);
+                this.sharedDispatcher = shared;
+            }
+        }
+        return true;
+    }
+
+    /** @return The shared dispatcher this handler joined, or null. */
+    public SharedCommandDispatcher getSharedDispatcher() {
+        return this.sharedDispatcher;
+    }
+
     public List<Command> getCommands(CommandSender sender) {
+        this.commitStagedPermissions();
         List<Command> permissiveCommands = new ArrayList<Command>();
         for (Command c : this.allCommands) {
-            if (this.permissions.hasAnyPermission(sender, c.getAllPermissionStrings(), c.isOpRequired())) {
+            CommandDescriptor descriptor = c.getDescriptor();
+            if (this.permissions.hasAnyPermission(sender, descriptor.getPermissionList(), descriptor.isOpRequired())) {
                 permissiveCommands.add(c);
             }
         }
         return permissiveCommands;
     }
 
+    /**
+     * Sends one page of help as a single message: a one-line summary of each command the sender may use, see
+     * {@link Command#getHelpSummary()}. Players get {@value #HELP_PAGE_SIZE} commands per page, everyone else gets all
+     * of them at once.
+     *
+     * @param sender The sender asking for help.
+     * @param page   The page to show, starting at 1. Pages out of range show the first or last page.
+     */
+    public void showHelpPage(CommandSender sender, int page) {
+        sender.sendMessage(this.getHelpPage(sender, page, sender instanceof Player ? HELP_PAGE_SIZE : Integer.MAX_VALUE));
+    }
+
+    /**
+     * @param sender   The sender asking for help.
+     * @param page     The page to render, starting at 1.
+     * @param pageSize How many commands to list per page.
+     *
+     * @return The page as lines separated by '\n'.
+     */
+    public String getHelpPage(CommandSender sender, int page, int pageSize) {
+        List<Command> commands = this.getCommands(sender);
+        int pages = commands.isEmpty() ? 1 : (commands.size() - 1) / pageSize + 1;
+        page = Math.max(1, Math.min(page, pages));
+        StringBuilder help = new StringBuilder();
+        help.append(ChatColor.AQUA).append("--- Commands");
+        if (pages > 1) {
+            help.append(" (page ").append(page).append('/').append(pages).append(')');
+        }
+        help.append(" ---");
+        int end = (int) Math.min(commands.size(), (long) page * pageSize);
+        for (int i = (page - 1) * pageSize; i < end; i++) {
+            help.append('\n').append(commands.get(i).getHelpSummary());
+        }
+        return help.toString();
+    }
+
     public List<Command> getAllCommands() {
         return this.allCommands;
     }
@@ -72,187 +238,1069 @@ public class CommandHandler {
     }
 
     public boolean locateAndRunCommand(CommandSender sender, List<String> args, boolean notifySender) {
-        List<String> parsedArgs = parseAllQuotedStrings(args);
-        CommandKey key = null;
+        return this.locateAndRunCommand(sender, args.toArray(new String[args.size()]), notifySender);
+    }
+
+    public boolean locateAndRunCommand(CommandSender sender, String[] args) {
+        return this.locateAndRunCommand(sender, args, true); // Notify sender by default
+    }
+
+    public boolean locateAndRunCommand(CommandSender sender, String[] args, boolean notifySender) {
+        this.dispatch(sender, args, notifySender);
+        return true;
+    }
+
+    public DispatchResult dispatch(CommandSender sender, String[] args) {
+        return this.dispatch(sender, args, true); // Notify sender by default
+    }
+
+    /**
+     * Finds the command matching the args and runs it if the sender may, just like
+     * {@link #locateAndRunCommand(CommandSender, String[], boolean)}, but tells what happened.
+     *
+     * @param sender       The sender of the command
+     * @param args         The args as typed, split on spaces
+     * @param notifySender Whether to send optional messages to the command sender
+     *
+     * @return What happened. The same result is reused by the next dispatch on this thread, see {@link DispatchResult}.
+     */
+    public DispatchResult dispatch(CommandSender sender, String[] args, boolean notifySender) {
+        return this.dispatch(sender, args, notifySender, null, false);
+    }
+
+    /**
+     * Runs many command lines for one sender, in order, ie: a setup script. Each line is what the sender would type,
+     * with or without the leading slash. Blank lines and lines starting with '#' are skipped.
+     *
+     * Every command's permissions are checked once for the whole batch, so a command that changes the sender's
+     * permissions affects the lines after it only if they use a different command.
+     *
+     * @param sender      The sender to run all lines as.
+     * @param lines       The lines to run.
+     * @param stopOnError Whether to stop at the first line that fails, see {@link DispatchStatus#isError()}.
+     * @param dryRun      Whether to only check that every line would run, without running anything.
+     *
+     * @return One result per line that was not skipped, up to and including the one that stopped the batch.
+     */
+    public List<BatchLineResult> runBatch(CommandSender sender, Iterable<String> lines, boolean stopOnError, boolean dryRun) {
+        List<BatchLineResult> results = new ArrayList<BatchLineResult>();
+        Map<Command, Boolean> permissionMemo = new IdentityHashMap<Command, Boolean>();
+        int lineNumber = 0;
+        for (String line : lines) {
+            lineNumber++;
+            if (!this.runBatchLine(sender, line, lineNumber, results, permissionMemo, stopOnError, dryRun)) {
+                break;
+            }
+        }
+        return results;
+    }
 
-        Iterator<Command> iterator = this.allCommands.iterator();
-        Command foundCommand = null;
-        // Initialize a list of all commands that match:
-        List<Command> foundCommands = new ArrayList<Command>();
-        List<CommandKey> foundKeys = new ArrayList<CommandKey>();
+    /**
+     * Runs a script file with one command line per line, read as UTF-8 while it runs.
+     *
+     * @param script The script to run.
+     *
+     * @return One result per line that was not skipped.
+     *
+     * @throws IOException If the script can't be read. Lines before the failure have already run.
+     * @see #runBatch(CommandSender, Iterable, boolean, boolean)
+     */
+    public List<BatchLineResult> runScript(CommandSender sender, Path script, boolean stopOnError, boolean dryRun) throws IOException {
+        List<BatchLineResult> results = new ArrayList<BatchLineResult>();
+        Map<Command, Boolean> permissionMemo = new IdentityHashMap<Command, Boolean>();
+        try (BufferedReader reader = Files.newBufferedReader(script, StandardCharsets.UTF_8)) {
+            int lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (!this.runBatchLine(sender, line, lineNumber, results, permissionMemo, stopOnError, dryRun)) {
+                    break;
+                }
+            }
+        }
+        return results;
+    }
 
-        while (iterator.hasNext()) {
-            foundCommand = iterator.next();
-            key = foundCommand.getKey(parsedArgs);
-            if (key != null) {
-                foundCommands.add(foundCommand);
-                foundKeys.add(key);
+    /**
+     * @return Whether the batch should go on.
+     */
+    private boolean runBatchLine(CommandSender sender, String line, int lineNumber, List<BatchLineResult> results,
+                                 Map<Command, Boolean> permissionMemo, boolean stopOnError, boolean dryRun) {
+        String trimmed = line.trim();
+        if (trimmed.startsWith("/")) {
+            trimmed = trimmed.substring(1).trim();
+        }
+        if (trimmed.length() == 0 || trimmed.charAt(0) == '#') {
+            return true;
+        }
+        DispatchStatus status;
+        Throwable error = null;
+        try {
+            status = this.dispatch(sender, WHITESPACE.split(trimmed), !dryRun, permissionMemo, dryRun).getStatus();
+        } catch (RuntimeException e) {
+            status = DispatchStatus.FAILED;
+            error = e;
+        }
+        results.add(new BatchLineResult(lineNumber, line, status, error));
+        return !(stopOnError && status.isError());
+    }
+
+    /**
+     * Finds the command matching the args and runs it if the sender may.
+     *
+     * @param sender         The sender of the command
+     * @param args           The args as typed, split on spaces
+     * @param notifySender   Whether to send optional messages to the command sender
+     * @param permissionMemo Permission results to reuse and fill in, keyed by command, or null to always ask.
+     * @param dryRun         Whether to stop short of running the command, and of telling the sender anything.
+     *
+     * @return What happened.
+     */
+    private DispatchResult dispatch(CommandSender sender, String[] args, boolean notifySender, Map<Command, Boolean> permissionMemo, boolean dryRun) {
+        // Read once, so metrics being switched off halfway through a dispatch can't cause trouble.
+        DispatchMetrics metrics = dryRun ? null : this.metrics;
+        long start = metrics == null ? 0 : System.nanoTime();
+
+        TokenizedArgs tokens = this.tokenizedArgs.get();
+        tokens.tokenize(args);
+        long parseNanos = metrics == null ? -1 : System.nanoTime() - start;
+
+        DispatchResult result = this.dispatchTokens(sender, tokens, parseNanos, notifySender, notifySender && this.suggestOnMiss,
+                permissionMemo, dryRun, metrics);
+        if (!result.isMatched() && notifySender && !dryRun && this.isConfirmation(tokens)) {
+            this.sendNothingToConfirm(sender, tokens);
+        }
+        return result;
+    }
+
+    /**
+     * Called by a {@link DispatchChain}, which splits the args only once for all of its handlers.
+     */
+    DispatchResult dispatchTokens(CommandSender sender, TokenizedArgs tokens, boolean notifySender, boolean suggest) {
+        return this.dispatchTokens(sender, tokens, -1, notifySender, suggest, null, false, this.metrics);
+    }
+
+    private DispatchResult dispatchTokens(CommandSender sender, TokenizedArgs tokens, long parseNanos, boolean notifySender, boolean suggest,
+                                          Map<Command, Boolean> permissionMemo, boolean dryRun, DispatchMetrics metrics) {
+        this.commitStagedPermissions();
+        DispatchResult result = this.acquireResult();
+        try {
+            long start = metrics == null ? 0 : System.nanoTime();
+            // Initialize a list of all commands that match, resolved through the key trie:
+            List<CommandKey> foundKeys = this.keyTrie.findMatches(tokens);
+            CommandKey matchingKey = foundKeys.size() == 0 ? null : selectBestKey(foundKeys, tokens.size());
+            if (metrics != null) {
+                long resolveNanos = System.nanoTime() - start;
+                if (parseNanos >= 0) {
+                    metrics.recordParse(parseNanos);
+                }
+                metrics.recordResolve(resolveNanos);
+                metrics.recordDispatch(matchingKey != null);
+                result.setParseNanos(parseNanos);
+                result.setResolveNanos(resolveNanos);
             }
+
+            if (matchingKey == null && this.isConfirmation(tokens)) {
+                result.setStatus(this.confirm(sender, tokens, dryRun, result));
+                return result;
+            }
+            if (matchingKey == null && suggest && !dryRun) {
+                this.sendSuggestions(sender, tokens);
+            }
+            result.setStatus(this.processFoundCommand(matchingKey, sender, tokens, notifySender, metrics, permissionMemo, dryRun, result));
+            return result;
+        } finally {
+            result.inUse = false;
         }
+    }
 
-        processFoundCommands(foundCommands, foundKeys, sender, parsedArgs, notifySender);
-        return true;
+    boolean isConfirmation(TokenizedArgs tokens) {
+        String confirm = this.confirmCommand;
+        return confirm != null && tokens.size() > 0 && tokens.size() <= 2 && tokens.get(0).equalsIgnoreCase(confirm);
     }
 
-    private void processFoundCommands(List<Command> foundCommands, List<CommandKey> foundKeys, CommandSender sender, List<String> parsedArgs) {
-        this.processFoundCommands(foundCommands, foundKeys, sender, parsedArgs, true); // Notify sender by default
+    /**
+     * Tells the sender a confirm line was not claimed by any handler, see {@link #isConfirmation(TokenizedArgs)}.
+     */
+    void sendNothingToConfirm(CommandSender sender, TokenizedArgs tokens) {
+        String token = tokens.size() > 1 ? tokens.get(1) : null;
+        sender.sendMessage(ChatColor.RED + (token == null ? "You have nothing to confirm." : "There is nothing to confirm with " + token + "."));
     }
 
     /**
-     * The purpose of this method is to determine the most specific command matching the args and execute it.
+     * Confirms a queued command, for a line that starts with the confirm command and no registered command matched.
      *
-     * @param foundCommands A list of all matching commands.
-     * @param foundKeys     A list of the key that was matched the command.
-     * @param sender        The sender of the original command
-     * @param parsedArgs    The arguments who have been combined, ie: "The world" is one argument
-     * @param notifySender  Whether to send optional messages to the command sender
+     * @return {@link DispatchStatus#NOT_FOUND} if this handler has nothing queued for the sender, so a
+     *         {@link DispatchChain} goes on to the next handler.
      */
-    private void processFoundCommands(List<Command> foundCommands, List<CommandKey> foundKeys, CommandSender sender, List<String> parsedArgs, boolean notifySender) {
+    private DispatchStatus confirm(CommandSender sender, TokenizedArgs tokens, boolean dryRun, DispatchResult result) {
+        String token = tokens.size() > 1 ? tokens.get(1) : null;
+        if (dryRun) {
+            // Whatever is queued now may well be gone by the time the line really runs.
+            return DispatchStatus.VALID;
+        }
+        if (this.findQueuedCommand(getSenderKey(sender), token) == null) {
+            result.setReason(DispatchResult.NOT_CONFIRMED);
+            return DispatchStatus.NOT_FOUND;
+        }
+        if (this.confirmQueuedCommand(sender, token)) {
+            return DispatchStatus.EXECUTED;
+        }
+        result.setReason(DispatchResult.NOT_CONFIRMED);
+        return DispatchStatus.FAILED;
+    }
 
-        if (foundCommands.size() == 0) {
-            return;
+    /**
+     * Runs a command that was already resolved by the {@link SharedCommandDispatcher}.
+     */
+    DispatchResult dispatchResolved(CommandSender sender, CommandKey matchingKey, TokenizedArgs tokens) {
+        this.commitStagedPermissions();
+        DispatchMetrics metrics = this.metrics;
+        if (metrics != null) {
+            // The shared dispatcher already resolved the key, so there is no time of ours to record.
+            metrics.recordDispatch(true);
+        }
+        DispatchResult result = this.acquireResult();
+        try {
+            result.setStatus(this.processFoundCommand(matchingKey, sender, tokens, true, metrics, null, false, result));
+            return result;
+        } finally {
+            result.inUse = false;
+        }
+    }
+
+    private DispatchResult acquireResult() {
+        DispatchResult result = this.dispatchResult.get();
+        if (result.inUse) {
+            // A command is dispatching another one, and its own result still has to be filled in afterwards.
+            result = new DispatchResult();
+        } else {
+            result.reset();
+        }
+        result.inUse = true;
+        return result;
+    }
+
+    /**
+     * The purpose of this method is to execute the most specific command matching the args.
+     *
+     * @param matchingKey    The best key that matched, see {@link #selectBestKey(List, int)}. May be null.
+     * @param sender         The sender of the original command
+     * @param tokens         The arguments who have been combined, ie: "The world" is one argument
+     * @param notifySender   Whether to send optional messages to the command sender
+     * @param metrics        Where to record what happened, or null if metrics are disabled.
+     * @param permissionMemo Permission results to reuse, or null.
+     * @param dryRun         Whether to only check the command instead of running it.
+     * @param result         Where to fill in the details of what happened.
+     *
+     * @return What happened.
+     */
+    private DispatchStatus processFoundCommand(CommandKey matchingKey, CommandSender sender, TokenizedArgs tokens, boolean notifySender,
+                                               DispatchMetrics metrics, Map<Command, Boolean> permissionMemo, boolean dryRun,
+                                               DispatchResult result) {
+        if (matchingKey == null) {
+            return DispatchStatus.NOT_FOUND;
+        }
+        Command bestMatch = matchingKey.getCommand();
+        List<String> parsedArgs = bestMatch.removeKeyArgs(tokens, matchingKey);
+        result.setMatch(matchingKey, parsedArgs);
+        // Special case:
+        // If the ONLY param is a '?' show them the usage.
+        if (parsedArgs.size() == 1 && parsedArgs.get(0).equals("?") && this.hasPermission(sender, bestMatch, permissionMemo)) {
+            if (!dryRun) {
+                if (metrics != null) {
+                    metrics.forCommand(bestMatch).recordHelpShown();
+                }
+                bestMatch.showHelp(sender);
+            }
+            return DispatchStatus.HELP_SHOWN;
+        }
+        CommandMetrics commandMetrics = metrics == null ? null : metrics.forCommand(bestMatch);
+        AuditLog audit = dryRun || !bestMatch.isAudited() ? null : this.auditLog;
+        if (audit == null) {
+            return this.interceptAndRun(sender, matchingKey, parsedArgs, notifySender, commandMetrics, permissionMemo, dryRun, result);
+        }
+        // Taken before the command runs, as it may change its args.
+        List<String> auditedArgs = new ArrayList<String>(parsedArgs);
+        long timeMillis = System.currentTimeMillis();
+        long start = System.nanoTime();
+        // Commands that throw are logged too; they are what an audit log is most often read for.
+        DispatchStatus status = DispatchStatus.FAILED;
+        try {
+            status = this.interceptAndRun(sender, matchingKey, parsedArgs, notifySender, commandMetrics, permissionMemo, dryRun, result);
+            return status;
+        } finally {
+            audit.record(new AuditEvent(timeMillis, sender.getName(), bestMatch, matchingKey.getKey(), auditedArgs, status, System.nanoTime() - start));
+        }
+    }
+
+    /**
+     * Runs the command's interceptors around {@link #checkAndRunCommand}, see {@link CommandInterceptor}.
+     */
+    private DispatchStatus interceptAndRun(CommandSender sender, CommandKey key, List<String> parsedArgs, boolean notifySender,
+                                           CommandMetrics metrics, Map<Command, Boolean> permissionMemo, boolean dryRun, DispatchResult result) {
+        CommandInterceptor[] interceptors = this.compiledInterceptors.get(key.getCommand());
+        if (interceptors == null) {
+            return this.checkAndRunCommand(sender, parsedArgs, key.getCommand(), notifySender, metrics, permissionMemo, dryRun, result);
+        }
+        CommandInvocation invocation = result.getInvocation();
+        invocation.reset(this, interceptors, sender, key, parsedArgs, notifySender, metrics, permissionMemo, dryRun, result);
+        DispatchStatus status = null;
+        int last = interceptors.length - 1;
+        for (int i = 0; i < interceptors.length; i++) {
+            status = interceptors[i].before(invocation);
+            if (status != null) {
+                last = i;
+                break;
+            }
+        }
+        if (status == null) {
+            status = invocation.proceed();
+        }
+        for (int i = last; i >= 0; i--) {
+            interceptors[i].after(invocation, status);
+        }
+        return status;
+    }
+
+    /**
+     * Adds an interceptor for all commands of this handler, after the ones added before. Commands can opt out with
+     * {@link Command#skipInterceptor(Class)}.
+     *
+     * @param interceptor The interceptor to add.
+     */
+    public void addInterceptor(CommandInterceptor interceptor) {
+        synchronized (this.registryLock) {
+            this.interceptors.add(interceptor);
+            this.compileInterceptors(this.allCommands, true);
+        }
+    }
+
+    public void removeInterceptor(CommandInterceptor interceptor) {
+        synchronized (this.registryLock) {
+            this.interceptors.remove(interceptor);
+            this.compileInterceptors(this.allCommands, true);
         }
-        Command bestMatch = null;
+    }
+
+    public List<CommandInterceptor> getInterceptors() {
+        return Collections.unmodifiableList(this.interceptors);
+    }
+
+    /**
+     * Called by a registered {@link Command} when its own interceptors changed.
+     */
+    void interceptorsChanged(Command command) {
+        synchronized (this.registryLock) {
+            if (this.allCommands.contains(command)) {
+                this.compileInterceptors(Collections.singletonList(command), false);
+            }
+        }
+    }
+
+    /**
+     * Publishes a new snapshot with the interceptors of the given commands flattened into arrays. Must hold the
+     * registry lock.
+     *
+     * @param commands The commands whose interceptors to work out again.
+     * @param all      Whether these are all commands, so the current snapshot can be thrown away.
+     */
+    private void compileInterceptors(List<? extends Command> commands, boolean all) {
+        Map<Command, CommandInterceptor[]> compiled = all ? new IdentityHashMap<Command, CommandInterceptor[]>()
+                : new IdentityHashMap<Command, CommandInterceptor[]>(this.compiledInterceptors);
+        for (Command command : commands) {
+            List<CommandInterceptor> chain = new ArrayList<CommandInterceptor>();
+            for (CommandInterceptor interceptor : this.interceptors) {
+                if (interceptor.appliesTo(command) && !command.skipsInterceptor(interceptor)) {
+                    chain.add(interceptor);
+                }
+            }
+            chain.addAll(command.getInterceptors());
+            if (chain.isEmpty()) {
+                compiled.remove(command);
+            } else {
+                compiled.put(command, chain.toArray(new CommandInterceptor[chain.size()]));
+            }
+        }
+        this.compiledInterceptors = compiled;
+    }
+
+    /**
+     * Picks the most specific of the matching keys: the one with the most parts, and among those, the last one whose
+     * command accepts the number of args that are left.
+     *
+     * @param foundKeys  A list of the key that was matched for each matching command.
+     * @param tokenCount How many args there were, including the key.
+     *
+     * @return The best key, or null if there were none.
+     */
+    static CommandKey selectBestKey(List<CommandKey> foundKeys, int tokenCount) {
         CommandKey matchingKey = null;
         int bestMatchInt = 0;
 
-        for (int i = 0; i < foundCommands.size(); i++) {
-            List<String> parsedCopy = new ArrayList<String>(parsedArgs);
-            foundCommands.get(i).removeKeyArgs(parsedCopy, foundKeys.get(i).getKey());
+        for (CommandKey key : foundKeys) {
+            int numKeyArgs = key.getTokenCount();
+            int remainingArgs = tokenCount - numKeyArgs;
 
-            if (foundCommands.get(i).getNumKeyArgs(foundKeys.get(i).getKey()) > bestMatchInt) {
-                bestMatch = foundCommands.get(i);
-                matchingKey = foundKeys.get(i);
-                bestMatchInt = bestMatch.getNumKeyArgs(matchingKey.getKey());
-            } else if (foundCommands.get(i).getNumKeyArgs(foundKeys.get(i).getKey()) == bestMatchInt && (foundKeys.get(i).hasValidNumberOfArgs(parsedCopy.size()))) {
+            if (numKeyArgs > bestMatchInt) {
+                matchingKey = key;
+                bestMatchInt = numKeyArgs;
+            } else if (numKeyArgs == bestMatchInt && key.hasValidNumberOfArgs(remainingArgs)) {
                 // If the number of matched items was the same as a previous one
                 // AND the new one has a valid number of args, it will be accepted
                 // and will replace the previous one as the best command.
-                bestMatch = foundCommands.get(i);
-                matchingKey = foundKeys.get(i);
+                matchingKey = key;
             }
         }
+        return matchingKey;
+    }
 
-        if (bestMatch != null) {
-            bestMatch.removeKeyArgs(parsedArgs, matchingKey.getKey());
-            // Special case:
-            // If the ONLY param is a '?' show them the usage.
-            if (parsedArgs.size() == 1 && parsedArgs.get(0).equals("?") && this.permissions.hasAnyPermission(sender, bestMatch.getAllPermissionStrings(), bestMatch.isOpRequired())) {
-                bestMatch.showHelp(sender);
-            } else {
-                checkAndRunCommand(sender, parsedArgs, bestMatch, notifySender);
+    /**
+     * Suggests how the last of the given args could be completed: the next part of any command key the sender has
+     * permission for, followed by whatever the matched command suggests for its args.
+     *
+     * @param sender The sender pressing tab.
+     * @param args   The args typed so far. The last one is the partially typed one and may be empty.
+     *
+     * @return The suggestions, never null.
+     */
+    public List<String> getCompletions(final CommandSender sender, String[] args) {
+        if (args.length == 0) {
+            return new ArrayList<String>();
+        }
+        this.commitStagedPermissions();
+        String prefix = args[args.length - 1];
+        TokenizedArgs tokens = this.tokenizedArgs.get();
+        tokens.tokenize(Arrays.copyOf(args, args.length - 1));
+
+        // Each command's permissions are checked at most once per completion.
+        final Map<Command, Boolean> allowed = new IdentityHashMap<Command, Boolean>();
+        CommandKeyTrie.CommandFilter filter = new CommandKeyTrie.CommandFilter() {
+            public boolean accept(Command command) {
+                Boolean result = allowed.get(command);
+                if (result == null) {
+                    CommandDescriptor descriptor = command.getDescriptor();
+                    result = permissions.hasAnyPermission(sender, descriptor.getPermissionList(), descriptor.isOpRequired());
+                    allowed.put(command, result);
+                }
+                return result;
             }
+        };
+
+        CommandKeyTrie trie = this.keyTrie;
+        List<String> completions = trie.findNextTokens(tokens, prefix, filter);
+        CommandKey key = selectBestKey(trie.findMatches(tokens), tokens.size() + 1);
+        if (key != null && filter.accept(key.getCommand())) {
+            List<String> keyArgs = key.getCommand().removeKeyArgs(tokens, key);
+            completions.addAll(key.getCommand().getSuggestions(sender, keyArgs, prefix));
         }
+        return completions;
+    }
+
+    /**
+     * Finds the keys closest to what was typed, for when no command matched. Only keys of commands the sender has
+     * permission for are suggested.
+     *
+     * @param sender The sender of the command.
+     * @param args   The args as typed.
+     *
+     * @return Up to {@value #MAX_SUGGESTIONS} keys, closest first.
+     */
+    public List<String> suggestKeys(CommandSender sender, String[] args) {
+        TokenizedArgs tokens = this.tokenizedArgs.get();
+        tokens.tokenize(args);
+        return this.suggestKeys(sender, tokens);
+    }
+
+    private List<String> suggestKeys(CommandSender sender, TokenizedArgs tokens) {
+        this.commitStagedPermissions();
+        FuzzyKeyIndex index = this.fuzzyIndex;
+        if (index == null) {
+            synchronized (this.registryLock) {
+                index = this.fuzzyIndex;
+                if (index == null) {
+                    index = new FuzzyKeyIndex(this.allCommands);
+                    this.fuzzyIndex = index;
+                }
+            }
+        }
+        // Compare the first few args with the keys that have as many tokens, ie: "mv lsit foo" with "mv list".
+        List<FuzzyKeyIndex.Match> matches = new ArrayList<FuzzyKeyIndex.Match>();
+        StringBuilder query = new StringBuilder();
+        for (int i = 0; i < tokens.size() && i < index.getMaxTokenCount(); i++) {
+            if (i > 0) {
+                query.append(' ');
+            }
+            query.append(tokens.get(i).toLowerCase());
+            // Short keys get a smaller budget, otherwise everything would be close to "mv".
+            int maxDistance = Math.min(this.suggestionDistance, Math.max(1, query.length() / 3));
+            index.search(query.toString(), i + 1, maxDistance, MAX_SUGGESTION_VISITS, matches);
+        }
+        Collections.sort(matches);
+
+        List<String> suggestions = new ArrayList<String>();
+        Map<Command, Boolean> permissionMemo = new IdentityHashMap<Command, Boolean>();
+        for (FuzzyKeyIndex.Match match : matches) {
+            String key = match.getKey().getKey();
+            if (!suggestions.contains(key) && this.hasPermission(sender, match.getKey().getCommand(), permissionMemo)) {
+                suggestions.add(key);
+                if (suggestions.size() == MAX_SUGGESTIONS) {
+                    break;
+                }
+            }
+        }
+        return suggestions;
+    }
+
+    private void sendSuggestions(CommandSender sender, TokenizedArgs tokens) {
+        List<String> suggestions = this.suggestKeys(sender, tokens);
+        if (suggestions.isEmpty()) {
+            return;
+        }
+        StringBuilder message = new StringBuilder();
+        message.append(ChatColor.RED).append("Unknown command. Did you mean ");
+        for (int i = 0; i < suggestions.size(); i++) {
+            if (i > 0) {
+                message.append(ChatColor.WHITE).append(i == suggestions.size() - 1 ? " or " : ", ");
+            }
+            message.append(ChatColor.GREEN).append('/').append(suggestions.get(i));
+        }
+        sender.sendMessage(message.append(ChatColor.WHITE).append('?').toString());
+    }
+
+    /**
+     * @param suggest Whether to tell senders which keys they might have meant when no command matched.
+     */
+    public void setSuggestOnMiss(boolean suggest) {
+        this.suggestOnMiss = suggest;
+    }
+
+    /**
+     * @param distance How many single character edits a suggested key may be away from what was typed, 2 by default.
+     *                 Short keys are held to a tighter limit.
+     */
+    public void setSuggestionDistance(int distance) {
+        this.suggestionDistance = distance;
     }
 
     public void registerCommand(Command command) {
-        this.allCommands.add(command);
+        this.registerCommands(Collections.singletonList(command));
     }
 
     /**
-     * Combines all quoted strings
+     * Registers several commands at once, ie: all commands of a plugin from its generated {@link CommandIndex}.
      *
-     * @param args
+     * @param commands The commands, in the order they should be registered in.
+     */
+    public void registerCommands(List<? extends Command> commands) {
+        // Writers take turns; dispatching threads just read whichever trie was published last.
+        synchronized (this.registryLock) {
+            CommandKeyTrie trie = this.keyTrie;
+            boolean staged = false;
+            for (Command command : commands) {
+                // Listen for new keys before reading the current ones, so a key added meanwhile can't be missed.
+                command.addHandler(this);
+                this.registrationOrder.put(command, this.nextOrder);
+                trie = trie.withCommand(command, this.nextOrder++);
+                staged |= command.hasStagedPermissions();
+            }
+            this.keyTrie = trie;
+            this.allCommands.addAll(commands);
+            this.listenForQuits();
+            if (staged) {
+                this.permissionsStaged();
+            }
+            this.compileInterceptors(commands, false);
+            this.fuzzyIndex = null;
+            if (this.sharedDispatcher != null) {
+                this.sharedDispatcher.commandsRegistered(this, commands);
+            }
+        }
+    }
+
+    /**
+     * Creates and registers every command of a plugin that was annotated with {@link CommandInfo}.
      *
-     * @return
+     * @param index The index generated for the plugin's commands at compile time.
      */
-    private List<String> parseAllQuotedStrings(List<String> args) {
-        String arg = null;
-        if (args.size() == 0) {
-            arg = "";
-        } else {
-            arg = args.get(0);
-            for (int i = 1; i < args.size(); i++) {
-                arg = arg + " " + args.get(i);
+    public void registerCommands(CommandIndex index) {
+        this.registerCommands(index.createCommands(this.plugin));
+    }
+
+    /**
+     * Removes a command, along with all of its keys. Dispatches that already found it still run it.
+     *
+     * @param command The command to remove.
+     *
+     * @return False if it wasn't registered.
+     */
+    public boolean unregisterCommand(Command command) {
+        synchronized (this.registryLock) {
+            if (this.registrationOrder.remove(command) == null) {
+                return false;
+            }
+            command.removeHandler(this);
+            this.keyTrie = this.keyTrie.withoutKeys(command.getKeys());
+            this.allCommands.remove(command);
+            this.rateLimiter.forgetCommand(command);
+            this.dropInterceptors(command);
+            this.fuzzyIndex = null;
+            if (this.sharedDispatcher != null) {
+                this.sharedDispatcher.commandUnregistered(this, command);
             }
+            return true;
         }
+    }
 
-        List<String> result = ShellParser.safeParseString(arg);
-        if (result == null) {
-            return new ArrayList<String>();
-        } else {
-            return result;
+    /**
+     * Puts a new command in the place of a registered one, ie: after its plugin reloaded part of its configuration.
+     * The new command wins the same ties the old one did. Both are published in one go, so no dispatch ever sees
+     * neither or both of them.
+     *
+     * @param old         The command to remove.
+     * @param replacement The command to register instead.
+     *
+     * @return False if the old command wasn't registered, in which case nothing changed.
+     */
+    public boolean replaceCommand(Command old, Command replacement) {
+        synchronized (this.registryLock) {
+            Integer order = this.registrationOrder.remove(old);
+            if (order == null) {
+                return false;
+            }
+            old.removeHandler(this);
+            replacement.addHandler(this);
+            this.registrationOrder.put(replacement, order);
+            this.keyTrie = this.keyTrie.withoutKeys(old.getKeys()).withCommand(replacement, order);
+            this.allCommands.set(this.allCommands.indexOf(old), replacement);
+            this.rateLimiter.forgetCommand(old);
+            if (replacement.hasStagedPermissions()) {
+                this.permissionsStaged();
+            }
+            this.dropInterceptors(old);
+            this.compileInterceptors(Collections.singletonList(replacement), false);
+            this.fuzzyIndex = null;
+            if (this.sharedDispatcher != null) {
+                this.sharedDispatcher.commandReplaced(this, old, replacement);
+            }
+            return true;
+        }
+    }
+
+    private void dropInterceptors(Command command) {
+        if (this.compiledInterceptors.containsKey(command)) {
+            Map<Command, CommandInterceptor[]> compiled = new IdentityHashMap<Command, CommandInterceptor[]>(this.compiledInterceptors);
+            compiled.remove(command);
+            this.compiledInterceptors = compiled;
+        }
+    }
+
+    /**
+     * Called by a registered {@link Command} when all of its keys were replaced.
+     *
+     * @param command The command.
+     * @param oldKeys The keys it had before.
+     */
+    void keysReplaced(Command command, List<CommandKey> oldKeys) {
+        synchronized (this.registryLock) {
+            Integer order = this.registrationOrder.get(command);
+            if (order == null) {
+                return;
+            }
+            this.keyTrie = this.keyTrie.withoutKeys(oldKeys).withCommand(command, order);
+            this.fuzzyIndex = null;
+            if (this.sharedDispatcher != null) {
+                this.sharedDispatcher.keysReplaced(this, command, oldKeys);
+            }
+        }
+    }
+
+    /**
+     * Reloads the keys, arg ranges and permissions of registered commands from the "commands" section of a YAML
+     * file, without touching anything else. Each command's section is named after the command, and may contain:
+     * <pre>
+     * commands:
+     *   list:
+     *     keys: [mv list, mvlist, mvl]
+     *     regex-keys: ['mv (ls|lsit)']
+     *     min-args: 0
+     *     max-args: 1
+     *     permission: multiverse.core.list
+     *     permission-default: op
+     * </pre>
+     * Keys and regex keys that are left out stay as they are.
+     *
+     * @param file The file to read.
+     *
+     * @return How many commands had at least one setting applied.
+     *
+     * @throws IOException If the file can't be read or isn't valid YAML.
+     */
+    public int loadCommandConfig(File file) throws IOException {
+        YamlConfiguration config = new YamlConfiguration();
+        try {
+            config.load(file);
+        } catch (InvalidConfigurationException e) {
+            throw new IOException("Invalid command config " + file, e);
+        }
+        ConfigurationSection commands = config.getConfigurationSection("commands");
+        return commands == null ? 0 : this.applyCommandConfig(commands);
+    }
+
+    /**
+     * @param commands A section with one section per command to change, see {@link #loadCommandConfig(File)}.
+     *
+     * @return How many commands had at least one setting applied.
+     */
+    public int applyCommandConfig(ConfigurationSection commands) {
+        int changed = 0;
+        for (String name : commands.getKeys(false)) {
+            Command command = this.findCommand(name);
+            ConfigurationSection section = commands.getConfigurationSection(name);
+            if (command == null || section == null) {
+                this.plugin.getLogger().warning("The command config mentions " + name + ", which is not a command.");
+                continue;
+            }
+            boolean applied = false;
+            if (section.isList("keys") || section.isList("regex-keys")) {
+                command.setKeys(section.isList("keys") ? section.getStringList("keys") : null,
+                        section.isList("regex-keys") ? section.getStringList("regex-keys") : null);
+                applied = true;
+            }
+            if (section.isSet("min-args") || section.isSet("max-args")) {
+                command.setArgRange(section.getInt("min-args", command.getMinArgs()), section.getInt("max-args", command.getMaxArgs()));
+                applied = true;
+            }
+            if (section.isSet("permission")) {
+                Permission current = command.getPermission();
+                PermissionDefault defaultPerm = PermissionDefault.getByName(section.getString("permission-default",
+                        current == null ? PermissionDefault.OP.name() : current.getDefault().name()));
+                // Bukkit keeps the defaults of permissions it already knows, so only new nodes take this default.
+                command.setPermission(section.getString("permission"), command.getCommandDesc(),
+                        defaultPerm == null ? PermissionDefault.OP : defaultPerm);
+                applied = true;
+            }
+            if (applied) {
+                changed++;
+            } else {
+                this.plugin.getLogger().warning("The command config for " + name + " has no settings this handler knows.");
+            }
+        }
+        return changed;
+    }
+
+    private Command findCommand(String name) {
+        for (Command command : this.allCommands) {
+            if (name.equalsIgnoreCase(command.getCommandName())) {
+                return command;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds the permissions of all registered commands to Bukkit in one pass, recalculating each wildcard parent only
+     * once. Must be called on the server thread. This happens by itself one tick after a command's permissions changed,
+     * or earlier if the server thread checks a permission first, but plugins should call it at the end of onEnable, so
+     * the permissions exist before anyone joins.
+     */
+    public void commitPermissions() {
+        synchronized (this.registryLock) {
+            // Cleared first, so permissions staged while committing are picked up by the next commit.
+            this.permissionsStaged = false;
+            PermissionTree tree = new PermissionTree();
+            for (Command command : this.allCommands) {
+                command.stagePermissions(tree);
+            }
+            if (!tree.isEmpty()) {
+                tree.commit(this.plugin.getServer().getPluginManager());
+            }
+        }
+    }
+
+    /**
+     * Called by a registered {@link Command} when it was given a new permission. Schedules a single commit on the
+     * server thread for however many permissions are staged until it runs.
+     */
+    void permissionsStaged() {
+        this.permissionsStaged = true;
+        if (!this.commitScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            this.plugin.getServer().getScheduler().runTask(this.plugin, new Runnable() {
+                public void run() {
+                    // Cleared first, so permissions staged while committing schedule another commit.
+                    commitScheduled.set(false);
+                    commitStagedPermissions();
+                }
+            });
+        } catch (IllegalPluginAccessException e) {
+            // The plugin isn't enabled yet or anymore; the next permission check on the server thread commits.
+            this.commitScheduled.set(false);
+        }
+    }
+
+    /**
+     * Commits staged permissions before they are checked, if this is the server thread. Bukkit's PluginManager must
+     * not be touched from other threads, which leave it to the commit scheduled when the permissions were staged.
+     */
+    private void commitStagedPermissions() {
+        if (this.permissionsStaged && this.plugin.getServer().isPrimaryThread()) {
+            this.commitPermissions();
+        }
+    }
+
+    /**
+     * Called by a registered {@link Command} when it gains a new key.
+     *
+     * @param key The key that was added.
+     */
+    void keyAdded(CommandKey key) {
+        synchronized (this.registryLock) {
+            Integer order = this.registrationOrder.get(key.getCommand());
+            if (order == null) {
+                // Unregistered meanwhile.
+                return;
+            }
+            this.keyTrie = this.keyTrie.withKey(key, order);
+            this.fuzzyIndex = null;
+            if (this.sharedDispatcher != null) {
+                this.sharedDispatcher.keyAdded(this, key);
+            }
         }
     }
 
     /**
      * "The command " + ChatColor.RED + commandName + ChatColor.WHITE + " has been halted due to the fact that it could
      * break something!" "If you still wish to execute " + ChatColor.RED + commandName + ChatColor.WHITE
+     *
+     * @return The token to confirm the command with, or null if the method could not be found.
      */
-    public void queueCommand(CommandSender sender, String commandName, String methodName, List<? extends Object> args, Class<?>[] paramTypes, String message, String message2, String success, String fail, int seconds) {
-        cancelQueuedCommand(sender);
-        this.queuedCommands.add(new QueuedCommand(methodName, args, paramTypes, sender, Calendar.getInstance(), this.plugin, success, fail, seconds));
+    public String queueCommand(CommandSender sender, String commandName, String methodName, List<? extends Object> args, Class<?>[] paramTypes, String message, String message2, String success, String fail, int seconds) {
+        QueuedCommandCallback callback;
+        try {
+            callback = QueuedCommand.methodCallback(this.plugin, methodName, args, paramTypes);
+        } catch (NoSuchMethodException e) {
+            this.logBadQueuedMethod(commandName, methodName, e);
+            return null;
+        } catch (IllegalAccessException e) {
+            this.logBadQueuedMethod(commandName, methodName, e);
+            return null;
+        }
+        return this.queueCommand(sender, commandName, callback, message, message2, success, fail, seconds);
+    }
+
+    public String queueCommand(CommandSender sender, String commandName, String methodName, List<? extends Object> args, Class<?>[] paramTypes, String success, String fail) {
+        return this.queueCommand(sender, commandName, methodName, args, paramTypes, null, null, success, fail, 10);
+    }
 
+    /**
+     * Queues a command that runs the given callback once the sender confirms it, without any reflection. A sender can
+     * have several commands waiting at once; each gets its own token, see {@link #confirmQueuedCommand(CommandSender, String)}.
+     *
+     * @return The token to confirm the command with.
+     * @see #queueCommand(CommandSender, String, String, List, Class[], String, String, String, String, int)
+     */
+    public String queueCommand(CommandSender sender, String commandName, QueuedCommandCallback callback, String message, String message2, String success, String fail, int seconds) {
+        final Object senderKey = getSenderKey(sender);
+        final QueuedCommand queued = new QueuedCommand(callback, sender, this.plugin, success, fail, seconds);
+        queued.setSequence(this.queuedCommandCount.incrementAndGet());
+        String token = queued.getToken();
+        int pending = this.addQueuedCommand(senderKey, queued);
+        this.scheduleExpiry(senderKey, queued, seconds);
+
+        String name = ChatColor.RED + commandName + ChatColor.WHITE;
+        String confirm = ChatColor.GREEN + "/" + this.confirmCommand + (pending > 1 ? " " + token : "");
+        StringBuilder text = new StringBuilder();
         if (message == null) {
-            message = "The command " + ChatColor.RED + commandName + ChatColor.WHITE + " has been halted due to the fact that it could break something!";
+            text.append("The command ").append(name).append(" has been halted due to the fact that it could break something!");
         } else {
-            message = message.replace("{CMD}", ChatColor.RED + commandName + ChatColor.WHITE);
+            text.append(message.replace("{CMD}", name));
         }
-
+        text.append('\n');
         if (message2 == null) {
-            message2 = "If you still wish to execute " + ChatColor.RED + commandName + ChatColor.WHITE;
+            text.append("If you still wish to execute ").append(name);
         } else {
-            message2 = message2.replace("{CMD}", ChatColor.RED + commandName + ChatColor.WHITE);
+            text.append(message2.replace("{CMD}", name));
         }
+        text.append("\nplease type: ").append(confirm);
+        text.append('\n').append(confirm).append(ChatColor.WHITE).append(" will only be available for ").append(seconds).append(" seconds.");
+        sender.sendMessage(text.toString());
+        return token;
+    }
 
-        sender.sendMessage(message);
-        sender.sendMessage(message2);
-        sender.sendMessage("please type: " + ChatColor.GREEN + "/mvconfirm");
-        sender.sendMessage(ChatColor.GREEN + "/mvconfirm" + ChatColor.WHITE + " will only be available for " + seconds + " seconds.");
+    public String queueCommand(CommandSender sender, String commandName, QueuedCommandCallback callback, String success, String fail) {
+        return this.queueCommand(sender, commandName, callback, null, null, success, fail, 10);
     }
 
-    public void queueCommand(CommandSender sender, String commandName, String methodName, List<? extends Object> args, Class<?>[] paramTypes, String success, String fail) {
-        this.queueCommand(sender, commandName, methodName, args, paramTypes, null, null, success, fail, 10);
+    /**
+     * @return How many commands the sender has waiting now, this one included.
+     */
+    private int addQueuedCommand(Object senderKey, QueuedCommand queued) {
+        while (true) {
+            ConcurrentMap<String, QueuedCommand> pending = this.queuedCommands.get(senderKey);
+            if (pending == null) {
+                ConcurrentMap<String, QueuedCommand> fresh = new ConcurrentHashMap<String, QueuedCommand>();
+                pending = this.queuedCommands.putIfAbsent(senderKey, fresh);
+                if (pending == null) {
+                    pending = fresh;
+                }
+            }
+            pending.put(queued.getToken(), queued);
+            // The map may have been dropped for being empty meanwhile, in which case it has to be added again.
+            if (this.queuedCommands.get(senderKey) == pending) {
+                return pending.size();
+            }
+            pending.remove(queued.getToken(), queued);
+        }
     }
 
     /**
-     * Tries to fire off the command
+     * @return Whether this call removed it, so only one of several threads confirming the same command runs it.
+     */
+    private boolean removeQueuedCommand(Object senderKey, QueuedCommand queued) {
+        ConcurrentMap<String, QueuedCommand> pending = this.queuedCommands.get(senderKey);
+        if (pending == null || !pending.remove(queued.getToken(), queued)) {
+            return false;
+        }
+        if (pending.isEmpty()) {
+            this.queuedCommands.remove(senderKey, pending);
+        }
+        return true;
+    }
+
+    private void logBadQueuedMethod(String commandName, String methodName, Exception e) {
+        this.plugin.getLogger().log(Level.SEVERE,
+                String.format("Could not queue %s: %s has no public method %s with the given parameters.",
+                commandName, this.plugin.getClass().getName(), methodName), e);
+    }
+
+    /**
+     * Removes the given queued command once its confirmation window has passed, unless it was confirmed before that.
+     */
+    private void scheduleExpiry(final Object senderKey, final QueuedCommand queued, int seconds) {
+        try {
+            this.plugin.getServer().getScheduler().runTaskLater(this.plugin, new Runnable() {
+                public void run() {
+                    removeQueuedCommand(senderKey, queued);
+                }
+            }, seconds * 20L);
+        } catch (IllegalPluginAccessException e) {
+            // The plugin is disabling; confirmQueuedCommand still refuses anything that has expired.
+        }
+    }
+
+    /**
+     * @param command The command senders type to confirm a queued command, without the slash. It is understood by
+     *                dispatching even if no command with that key was registered. "mvconfirm" by default.
+     */
+    public void setConfirmCommand(String command) {
+        this.confirmCommand = command;
+    }
+
+    public String getConfirmCommand() {
+        return this.confirmCommand;
+    }
+
+    /**
+     * Tries to fire off the sender's most recently queued command.
      *
      * @param sender
      *
      * @return
      */
     public boolean confirmQueuedCommand(CommandSender sender) {
-        for (QueuedCommand com : this.queuedCommands) {
-            if (com.getSender().equals(sender)) {
-                if (com.execute()) {
-                    if (com.getSuccess() != null && com.getSuccess().length() > 0) {
-                        sender.sendMessage(com.getSuccess());
-                    }
-                    return true;
-                } else {
-                    if (com.getFail() != null && com.getFail().length() > 0) {
-                        sender.sendMessage(com.getFail());
-                        return false;
-                    }
-                }
+        return this.confirmQueuedCommand(sender, null);
+    }
+
+    /**
+     * Tries to fire off one of the sender's queued commands.
+     *
+     * @param sender The sender confirming.
+     * @param token  The token the command was queued with, or null for the most recent one.
+     *
+     * @return Whether the command ran and succeeded.
+     */
+    public boolean confirmQueuedCommand(CommandSender sender, String token) {
+        Object senderKey = getSenderKey(sender);
+        QueuedCommand com = this.findQueuedCommand(senderKey, token);
+        if (com == null || !this.removeQueuedCommand(senderKey, com)) {
+            // Nothing queued, or another confirm got to it first.
+            return false;
+        }
+        if (com.execute()) {
+            if (com.getSuccess() != null && com.getSuccess().length() > 0) {
+                sender.sendMessage(com.getSuccess());
             }
+            return true;
+        }
+        if (com.getFail() != null && com.getFail().length() > 0) {
+            sender.sendMessage(com.getFail());
         }
         return false;
     }
 
+    private QueuedCommand findQueuedCommand(Object senderKey, String token) {
+        ConcurrentMap<String, QueuedCommand> pending = this.queuedCommands.get(senderKey);
+        if (pending == null) {
+            return null;
+        }
+        if (token != null) {
+            return pending.get(token.toLowerCase());
+        }
+        // A sender rarely has more than one or two commands queued.
+        QueuedCommand latest = null;
+        for (QueuedCommand queued : pending.values()) {
+            if (latest == null || queued.getSequence() > latest.getSequence()) {
+                latest = queued;
+            }
+        }
+        return latest;
+    }
+
     /**
-     * Cancels(invalidates) a command that has been requested. This is called when a user types something other than
-     * 'yes' or when they try to queue a second command Queuing a second command will delete the first command
-     * entirely.
+     * Cancels(invalidates) every command the sender has queued.
      *
      * @param sender
      */
     public void cancelQueuedCommand(CommandSender sender) {
-        QueuedCommand c = null;
-        for (QueuedCommand com : this.queuedCommands) {
-            if (com.getSender().equals(sender)) {
-                c = com;
-            }
+        this.queuedCommands.remove(getSenderKey(sender));
+    }
+
+    /**
+     * @param sender The sender who queued the command.
+     * @param token  The token the command was queued with.
+     */
+    public void cancelQueuedCommand(CommandSender sender, String token) {
+        Object senderKey = getSenderKey(sender);
+        QueuedCommand queued = this.findQueuedCommand(senderKey, token);
+        if (queued != null) {
+            this.removeQueuedCommand(senderKey, queued);
+        }
+    }
+
+    /**
+     * Returns what a sender is identified by across commands: the UUID of players and other entities, a single key for
+     * the console, and the sender itself for everything else (ie: command blocks).
+     *
+     * @param sender The sender of a command.
+     *
+     * @return A key that is safe to use in a map.
+     */
+    public static Object getSenderKey(CommandSender sender) {
+        if (sender instanceof Entity) {
+            return ((Entity) sender).getUniqueId();
         }
-        if (c != null) {
-            // Each person is allowed at most one queued command.
-            this.queuedCommands.remove(c);
+        if (sender instanceof ConsoleCommandSender) {
+            return ConsoleCommandSender.class;
         }
+        return sender;
     }
 
     /**
-     * Returns the given flag value
+     * Returns the given flag value. Commands with an {@link ArgumentSchema} get their flags from
+     * {@link CommandArguments#getFlag(String)} instead.
      *
      * @param flag A param flag, like -s or -g
      * @param args All arguments to search through
@@ -273,24 +1321,285 @@ public class CommandHandler {
         return null;
     }
 
-    private void checkAndRunCommand(CommandSender sender, List<String> parsedArgs, Command foundCommand, boolean notifySender) {
-        if (this.permissions.hasAnyPermission(sender, foundCommand.getAllPermissionStrings(), foundCommand.isOpRequired())) {
-            if (foundCommand.checkArgLength(parsedArgs)) {
-                foundCommand.runCommand(sender, parsedArgs);
-            } else {
-                foundCommand.showHelp(sender);
+    DispatchStatus checkAndRunCommand(CommandSender sender, List<String> parsedArgs, Command foundCommand, boolean notifySender,
+                                      CommandMetrics metrics, Map<Command, Boolean> permissionMemo, boolean dryRun,
+                                      DispatchResult result) {
+        CommandDescriptor descriptor = foundCommand.getDescriptor();
+        long start = metrics == null ? 0 : System.nanoTime();
+        boolean permitted = this.hasPermission(sender, foundCommand, permissionMemo);
+        if (metrics != null) {
+            metrics.recordPermissionCheck(System.nanoTime() - start);
+        }
+        if (!permitted) {
+            if (metrics != null) {
+                metrics.recordDenial();
             }
-        } else {
-            if(notifySender) {
+            result.setReason(DispatchResult.MISSING_PERMISSION);
+            result.setRequiredPermissions(descriptor.getPermissionList());
+            if (notifySender && !dryRun) {
                 sender.sendMessage("You do not have any of the required permission(s):");
-                for (String perm : foundCommand.getAllPermissionStrings()) {
+                for (String perm : descriptor.getPermissionStrings()) {
                     sender.sendMessage(" - " + ChatColor.GREEN + perm);
                 }
             }
+            return DispatchStatus.DENIED;
+        }
+        if (!descriptor.checkArgLength(parsedArgs)) {
+            result.setReason(DispatchResult.WRONG_ARG_COUNT);
+            if (!dryRun) {
+                if (metrics != null) {
+                    metrics.recordArgLengthReject();
+                    metrics.recordHelpShown();
+                }
+                foundCommand.showHelp(sender);
+            }
+            return DispatchStatus.INVALID_ARGS;
+        }
+        CommandArguments arguments = null;
+        if (descriptor.getArgumentSchema() != null) {
+            try {
+                arguments = descriptor.getArgumentSchema().parse(sender, parsedArgs, this.argumentConverters);
+            } catch (IllegalArgumentException e) {
+                result.setReason(e.getMessage());
+                if (notifySender && !dryRun) {
+                    sender.sendMessage(ChatColor.RED + e.getMessage());
+                }
+                return DispatchStatus.INVALID_ARGS;
+            }
+        }
+        if (dryRun) {
+            return DispatchStatus.VALID;
+        }
+        if (this.rateLimiter.isLimited(foundCommand) && !this.canBypassRateLimit(sender)) {
+            long wait = this.rateLimiter.tryAcquire(getSenderKey(sender), foundCommand, System.nanoTime());
+            if (wait > 0) {
+                result.setReason(DispatchResult.TOO_OFTEN);
+                result.setRetryAfterNanos(wait);
+                if (metrics != null) {
+                    metrics.recordRateLimited();
+                }
+                if (notifySender) {
+                    long seconds = (wait + 999999999L) / 1000000000L;
+                    sender.sendMessage(ChatColor.RED + "You're doing that too often, please wait " + seconds + " more second(s).");
+                }
+                return DispatchStatus.RATE_LIMITED;
+            }
+        }
+        start = metrics == null ? 0 : System.nanoTime();
+        DispatchStatus status = DispatchStatus.EXECUTED;
+        if (foundCommand.isAsync()) {
+            if (!this.runAsync(sender, parsedArgs, arguments, foundCommand, notifySender)) {
+                status = DispatchStatus.BUSY;
+                result.setReason(DispatchResult.TOO_BUSY);
+            }
+        } else {
+            foundCommand.invoke(sender, parsedArgs, arguments);
+        }
+        if (metrics != null) {
+            long executionNanos = System.nanoTime() - start;
+            metrics.recordInvocation(executionNanos);
+            result.setExecutionNanos(executionNanos);
+        }
+        return status;
+    }
+
+    private boolean hasPermission(CommandSender sender, Command command, Map<Command, Boolean> permissionMemo) {
+        Boolean result = permissionMemo == null ? null : permissionMemo.get(command);
+        if (result == null) {
+            CommandDescriptor descriptor = command.getDescriptor();
+            result = this.permissions.hasAnyPermission(sender, descriptor.getPermissionList(), descriptor.isOpRequired());
+            if (permissionMemo != null) {
+                permissionMemo.put(command, result);
+            }
+        }
+        return result;
+    }
+
+    private boolean canBypassRateLimit(CommandSender sender) {
+        String bypass = this.rateLimitBypassPermission;
+        return bypass != null && this.permissions.hasPermission(sender, bypass, true);
+    }
+
+    /**
+     * @param notifySender Whether to tell the sender when too many commands are running already.
+     *
+     * @return False if the executor was full, so the command did not run.
+     */
+    private boolean runAsync(CommandSender sender, List<String> parsedArgs, CommandArguments arguments, Command foundCommand,
+                             boolean notifySender) {
+        AsyncCommandExecutor executor = this.asyncExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = this.asyncExecutor;
+                if (executor == null) {
+                    executor = new AsyncCommandExecutor(this.plugin, this.maxAsyncCommands);
+                    this.asyncExecutor = executor;
+                }
+            }
+        }
+        if (!executor.submit(sender, foundCommand, parsedArgs, arguments)) {
+            if (notifySender) {
+                sender.sendMessage(ChatColor.RED + "Too many commands are running right now, please try again in a moment.");
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Limits how many commands each sender can run: a burst of commands back to back, after which one more becomes
+     * available every refillMillis. Cooldowns of single commands ({@link Command#setCooldown(long)}) apply either way.
+     *
+     * @param burst        How many commands can be run back to back, or 0 to turn the limit off (the default).
+     * @param refillMillis How long it takes for one more command to become available.
+     */
+    public void setRateLimit(int burst, long refillMillis) {
+        this.rateLimiter.setRate(burst, refillMillis);
+        this.listenForQuits();
+    }
+
+    /**
+     * Lets the rate limiter drop the caught up state of players when they quit, instead of waiting for the next sweep.
+     * Their running cooldowns are kept. Registered once, as soon as the plugin is enabled when commands or a rate limit
+     * are set up.
+     */
+    private void listenForQuits() {
+        if (!this.rateLimiterListening.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            this.rateLimiter.registerEvents(this.plugin);
+        } catch (IllegalPluginAccessException e) {
+            // Not enabled yet; try again the next time.
+            this.rateLimiterListening.set(false);
+        }
+    }
+
+    /**
+     * @param permission The permission that exempts senders from rate limits and cooldowns, or null for none (the
+     *                   default). Ops have it unless a permission plugin says otherwise.
+     */
+    public void setRateLimitBypassPermission(String permission) {
+        this.rateLimitBypassPermission = permission;
+    }
+
+    /** @return The converters used for commands with an {@link ArgumentSchema}, to register more with. */
+    public ArgumentConverters getArgumentConverters() {
+        return this.argumentConverters;
+    }
+
+    public RateLimiter getRateLimiter() {
+        return this.rateLimiter;
+    }
+
+    /**
+     * Writes every use of an audited command ({@link Command#isAudited()}) to the given log, off the server thread.
+     * The log is started, and any log set before is closed.
+     *
+     * @param auditLog The log to write to, or null to stop auditing.
+     */
+    public void setAuditLog(AuditLog auditLog) {
+        if (auditLog != null) {
+            auditLog.start();
+        }
+        AuditLog old = this.auditLog;
+        this.auditLog = auditLog;
+        if (old != null && old != auditLog) {
+            old.close();
+        }
+    }
+
+    public AuditLog getAuditLog() {
+        return this.auditLog;
+    }
+
+    /**
+     * Sets how many async commands may run at the same time. Only has an effect before the first one runs, or after
+     * {@link #shutdown()}.
+     *
+     * @param maxAsyncCommands The limit, 4 by default.
+     */
+    public void setMaxAsyncCommands(int maxAsyncCommands) {
+        this.maxAsyncCommands = maxAsyncCommands;
+    }
+
+    /**
+     * Replaces the executor async commands run on.
+     *
+     * @param executor The new executor.
+     */
+    public void setAsyncExecutor(AsyncCommandExecutor executor) {
+        AsyncCommandExecutor old = this.asyncExecutor;
+        this.asyncExecutor = executor;
+        if (old != null && old != executor) {
+            old.shutdown();
+        }
+    }
+
+    /**
+     * Stops the background threads used by async commands, the metrics dump and the audit log, and leaves the shared
+     * dispatcher. Plugins should call this from onDisable.
+     */
+    public void shutdown() {
+        this.setAsyncExecutor(null);
+        this.setAuditLog(null);
+        this.scheduleMetricsDump(0);
+        SharedCommandDispatcher shared = this.sharedDispatcher;
+        if (shared != null) {
+            shared.leave(this);
+            this.sharedDispatcher = null;
+        }
+    }
+
+    /**
+     * Turns measuring every dispatch on or off. While off, dispatching doesn't even read the clock. Turning it on again
+     * starts from zero.
+     *
+     * @param enabled Whether to collect metrics.
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        if (enabled) {
+            if (this.metrics == null) {
+                this.metrics = new DispatchMetrics();
+            }
+        } else {
+            this.metrics = null;
         }
     }
 
-    private void checkAndRunCommand(CommandSender sender, List<String> parsedArgs, Command foundCommand) {
-        this.checkAndRunCommand(sender, parsedArgs, foundCommand, true); // Notify sender by default
+    public boolean isMetricsEnabled() {
+        return this.metrics != null;
+    }
+
+    /**
+     * @return A copy of what was measured so far, or null if metrics are disabled.
+     */
+    public DispatchMetrics getMetrics() {
+        DispatchMetrics current = this.metrics;
+        return current == null ? null : current.snapshot();
+    }
+
+    /**
+     * Periodically writes the metrics to the plugin's logger, off the server thread. Enables metrics if needed.
+     *
+     * @param periodTicks How often to write them, or 0 or less to stop.
+     */
+    public synchronized void scheduleMetricsDump(long periodTicks) {
+        if (this.metricsDumpTask != null) {
+            this.metricsDumpTask.cancel();
+            this.metricsDumpTask = null;
+        }
+        if (periodTicks <= 0) {
+            return;
+        }
+        this.setMetricsEnabled(true);
+        this.metricsDumpTask = this.plugin.getServer().getScheduler().runTaskTimerAsynchronously(this.plugin, new Runnable() {
+            public void run() {
+                DispatchMetrics current = metrics;
+                if (current != null) {
+                    current.dump(plugin.getLogger());
+                }
+            }
+        }, periodTicks, periodTicks);
     }
 }
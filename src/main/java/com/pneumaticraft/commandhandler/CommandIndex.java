@@ -0,0 +1,19 @@
+package com.pneumaticraft.commandhandler;
+
+import org.bukkit.plugin.Plugin;
+
+import java.util.List;
+
+/**
+ * Creates all commands of a plugin that were annotated with {@link CommandInfo}. Implementations are generated by
+ * {@link CommandInfoProcessor}; plugins create the generated class directly, ie:
+ * {@code handler.registerCommands(new GeneratedCommandIndex());}.
+ */
+public interface CommandIndex {
+    /**
+     * @param plugin The plugin the commands belong to.
+     *
+     * @return The configured commands, ordered by their class names.
+     */
+    public List<Command> createCommands(Plugin plugin);
+}
@@ -0,0 +1,48 @@
+package com.pneumaticraft.commandhandler;
+
+import org.bukkit.permissions.PermissionDefault;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Describes a {@link Command} so it doesn't have to configure itself in its constructor. At compile time,
+ * {@link CommandInfoProcessor} turns all annotated commands of a plugin into a {@link CommandIndex}, which creates and
+ * configures them without any reflection; register it with {@link CommandHandler#registerCommands(CommandIndex)}.
+ *
+ * The annotated class needs a public constructor that takes just the plugin, which may be declared as the plugin's
+ * own class.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface CommandInfo {
+    /** @see Command#setName(String) */
+    String name();
+
+    /** @see Command#setCommandUsage(String) */
+    String usage();
+
+    /** @see Command#addKeys(String...) */
+    String[] keys();
+
+    /** @see Command#setArgRange(int, int) */
+    int minArgs() default 0;
+
+    /** The most args the command takes, -1 for no limit. @see Command#setArgRange(int, int) */
+    int maxArgs() default 0;
+
+    /** @see Command#setPermission(String, String, PermissionDefault) */
+    String permission();
+
+    /** The permission's description, shown in help. */
+    String description() default "";
+
+    PermissionDefault permissionDefault() default PermissionDefault.OP;
+
+    /** @see Command#addCommandExample(String) */
+    String[] examples() default {};
+}
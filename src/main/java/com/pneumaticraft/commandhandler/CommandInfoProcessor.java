@@ -0,0 +1,207 @@
+package com.pneumaticraft.commandhandler;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Generates a {@link CommandIndex} for all classes annotated with {@link CommandInfo}. It is picked up by javac
+ * automatically when CommandHandler is on the classpath.
+ *
+ * The index is named GeneratedCommandIndex and put in the package all annotated commands have in common, unless the
+ * compiler option -Acommandhandler.index=com.example.MyCommandIndex names it.
+ */
+@SupportedAnnotationTypes("com.pneumaticraft.commandhandler.CommandInfo")
+@SupportedOptions(CommandInfoProcessor.INDEX_OPTION)
+public class CommandInfoProcessor extends AbstractProcessor {
+    static final String INDEX_OPTION = "commandhandler.index";
+    private static final String DEFAULT_INDEX_NAME = "GeneratedCommandIndex";
+
+    private boolean written;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        List<TypeElement> commands = new ArrayList<TypeElement>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(CommandInfo.class)) {
+            if (this.isValid(element)) {
+                commands.add((TypeElement) element);
+            }
+        }
+        if (commands.isEmpty()) {
+            return true;
+        }
+        if (this.written) {
+            // Written as soon as possible, so the index itself is still compiled normally.
+            this.processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "@CommandInfo is not supported on generated sources", commands.get(0));
+            return true;
+        }
+        Collections.sort(commands, new Comparator<TypeElement>() {
+            public int compare(TypeElement a, TypeElement b) {
+                return a.getQualifiedName().toString().compareTo(b.getQualifiedName().toString());
+            }
+        });
+        try {
+            this.writeIndex(commands);
+        } catch (IOException e) {
+            this.processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write the command index: " + e);
+        }
+        this.written = true;
+        return true;
+    }
+
+    private boolean isValid(Element element) {
+        TypeMirror commandType = this.processingEnv.getElementUtils().getTypeElement(Command.class.getName()).asType();
+        if (element.getKind() != ElementKind.CLASS || element.getModifiers().contains(Modifier.ABSTRACT)
+                || !this.processingEnv.getTypeUtils().isSubtype(element.asType(), commandType)) {
+            this.error(element, "@CommandInfo can only be put on concrete subclasses of " + Command.class.getName());
+            return false;
+        }
+        if (this.findConstructor((TypeElement) element) == null) {
+            this.error(element, "@CommandInfo commands need a public constructor taking only the plugin");
+            return false;
+        }
+        CommandInfo info = element.getAnnotation(CommandInfo.class);
+        if (info.keys().length == 0) {
+            this.error(element, "@CommandInfo needs at least one key");
+            return false;
+        }
+        return true;
+    }
+
+    private ExecutableElement findConstructor(TypeElement type) {
+        TypeMirror pluginType = this.processingEnv.getElementUtils().getTypeElement("org.bukkit.plugin.Plugin").asType();
+        for (Element member : type.getEnclosedElements()) {
+            if (member.getKind() == ElementKind.CONSTRUCTOR && member.getModifiers().contains(Modifier.PUBLIC)) {
+                ExecutableElement constructor = (ExecutableElement) member;
+                if (constructor.getParameters().size() == 1
+                        && this.processingEnv.getTypeUtils().isAssignable(constructor.getParameters().get(0).asType(), pluginType)) {
+                    return constructor;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void error(Element element, String message) {
+        this.processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private void writeIndex(List<TypeElement> commands) throws IOException {
+        String indexName = this.processingEnv.getOptions().get(INDEX_OPTION);
+        if (indexName == null) {
+            String packageName = this.commonPackage(commands);
+            indexName = packageName.length() == 0 ? DEFAULT_INDEX_NAME : packageName + "." + DEFAULT_INDEX_NAME;
+        }
+        int lastDot = indexName.lastIndexOf('.');
+        String packageName = lastDot < 0 ? "" : indexName.substring(0, lastDot);
+        String simpleName = indexName.substring(lastDot + 1);
+
+        StringBuilder source = new StringBuilder();
+        if (packageName.length() > 0) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("/** Generated by ").append(CommandInfoProcessor.class.getName()).append(", do not edit. */\n");
+        source.append("public final class ").append(simpleName).append(" implements ").append(CommandIndex.class.getName()).append(" {\n");
+        source.append("    public java.util.List<").append(Command.class.getName()).append("> createCommands(org.bukkit.plugin.Plugin plugin) {\n");
+        source.append("        java.util.List<").append(Command.class.getName()).append("> commands = new java.util.ArrayList<")
+                .append(Command.class.getName()).append(">(").append(commands.size()).append(");\n");
+        source.append("        ").append(Command.class.getName()).append(" command;\n");
+        for (TypeElement type : commands) {
+            CommandInfo info = type.getAnnotation(CommandInfo.class);
+            TypeMirror pluginParameter = this.findConstructor(type).getParameters().get(0).asType();
+            source.append("\n        command = new ").append(type.getQualifiedName())
+                    .append("((").append(pluginParameter).append(") plugin);\n");
+            source.append("        command.setName(").append(literal(info.name())).append(");\n");
+            source.append("        command.setCommandUsage(").append(literal(info.usage())).append(");\n");
+            source.append("        command.setArgRange(").append(info.minArgs()).append(", ").append(info.maxArgs()).append(");\n");
+            source.append("        command.addKeys(").append(literals(info.keys())).append(");\n");
+            source.append("        command.setPermission(").append(literal(info.permission())).append(", ")
+                    .append(literal(info.description())).append(", org.bukkit.permissions.PermissionDefault.")
+                    .append(info.permissionDefault().name()).append(");\n");
+            for (String example : info.examples()) {
+                source.append("        command.addCommandExample(").append(literal(example)).append(");\n");
+            }
+            source.append("        commands.add(command);\n");
+        }
+        source.append("        return commands;\n    }\n}\n");
+
+        JavaFileObject file = this.processingEnv.getFiler().createSourceFile(indexName, commands.toArray(new Element[commands.size()]));
+        Writer writer = file.openWriter();
+        try {
+            writer.write(source.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private String commonPackage(List<TypeElement> commands) {
+        String common = null;
+        for (TypeElement type : commands) {
+            String packageName = this.processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+            if (common == null) {
+                common = packageName;
+            }
+            while (!packageName.equals(common) && !packageName.startsWith(common + ".")) {
+                int lastDot = common.lastIndexOf('.');
+                common = lastDot < 0 ? "" : common.substring(0, lastDot);
+                if (common.length() == 0) {
+                    return common;
+                }
+            }
+        }
+        return common;
+    }
+
+    private static String literals(String[] values) {
+        StringBuilder builder = new StringBuilder();
+        for (String value : values) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(literal(value));
+        }
+        return builder.toString();
+    }
+
+    /** Quotes a string as Java source, escaping everything that isn't printable ASCII (ie: the section sign). */
+    private static String literal(String value) {
+        StringBuilder builder = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                // Unicode escapes are resolved before the literal is parsed, so control characters need octal ones.
+                builder.append(String.format("\\%03o", (int) c));
+            } else if (c > 0x7e) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+}
@@ -0,0 +1,51 @@
+package com.pneumaticraft.commandhandler;
+
+/**
+ * Behaviour shared by many commands, ie: logging or region checks, that runs around a command once it was matched
+ * instead of inside each runCommand. Interceptors added to a {@link CommandHandler} apply to all of its commands,
+ * unless a command skips them ({@link Command#skipInterceptor(Class)}); interceptors added to a single command
+ * ({@link Command#addInterceptor(CommandInterceptor)}) run after those, for that command only.
+ *
+ * For every dispatch, the before() of each interceptor is called in order, then their around() nest in the same order
+ * around the permission, arg and rate limit checks and the command itself, and finally after() is called in reverse
+ * order. If a before() returns a status, the command does not run and only the interceptors whose before() already
+ * ran get their after() called. Interceptors run for dry runs too, see {@link CommandInvocation#isDryRun()}.
+ */
+public abstract class CommandInterceptor {
+    /**
+     * @param command A command registered with the handler this interceptor was added to.
+     *
+     * @return Whether to run for this command at all. Only asked when commands are registered or interceptors change.
+     */
+    public boolean appliesTo(Command command) {
+        return true;
+    }
+
+    /**
+     * @param invocation The command about to be checked and run.
+     *
+     * @return null to go on, or the status to stop with.
+     */
+    public DispatchStatus before(CommandInvocation invocation) {
+        return null;
+    }
+
+    /**
+     * @param invocation The command about to be checked and run.
+     *
+     * @return What happened: whatever {@link CommandInvocation#proceed()} returned, or a status of its own to stop
+     *         without running the command.
+     */
+    public DispatchStatus around(CommandInvocation invocation) {
+        return invocation.proceed();
+    }
+
+    /**
+     * Not called if the command threw an exception; use around() to handle those.
+     *
+     * @param invocation The command that was checked and run.
+     * @param status     What happened.
+     */
+    public void after(CommandInvocation invocation, DispatchStatus status) {
+    }
+}
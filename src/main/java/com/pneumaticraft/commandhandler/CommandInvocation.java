@@ -0,0 +1,89 @@
+package com.pneumaticraft.commandhandler;
+
+import org.bukkit.command.CommandSender;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A matched command on its way through the {@link CommandInterceptor}s. Each thread reuses the same invocation, so it
+ * is only valid while the interceptors are being called.
+ */
+public final class CommandInvocation {
+    private CommandHandler handler;
+    private CommandInterceptor[] interceptors;
+    private int next;
+    private CommandSender sender;
+    private CommandKey key;
+    private List<String> args;
+    private boolean notifySender;
+    private CommandMetrics metrics;
+    private Map<Command, Boolean> permissionMemo;
+    private boolean dryRun;
+    private DispatchResult result;
+
+    CommandInvocation() {
+    }
+
+    void reset(CommandHandler handler, CommandInterceptor[] interceptors, CommandSender sender, CommandKey key, List<String> args,
+               boolean notifySender, CommandMetrics metrics, Map<Command, Boolean> permissionMemo, boolean dryRun, DispatchResult result) {
+        this.handler = handler;
+        this.interceptors = interceptors;
+        this.next = 0;
+        this.sender = sender;
+        this.key = key;
+        this.args = args;
+        this.notifySender = notifySender;
+        this.metrics = metrics;
+        this.permissionMemo = permissionMemo;
+        this.dryRun = dryRun;
+        this.result = result;
+    }
+
+    /**
+     * Hands the invocation to the next interceptor's around(), or checks and runs the command once every interceptor
+     * had its turn. Each around() should call this at most once.
+     *
+     * @return What happened.
+     */
+    public DispatchStatus proceed() {
+        if (this.next < this.interceptors.length) {
+            return this.interceptors[this.next++].around(this);
+        }
+        return this.handler.checkAndRunCommand(this.sender, this.args, this.key.getCommand(), this.notifySender, this.metrics,
+                this.permissionMemo, this.dryRun, this.result);
+    }
+
+    public CommandSender getSender() {
+        return this.sender;
+    }
+
+    public Command getCommand() {
+        return this.key.getCommand();
+    }
+
+    /** @return The key the command matched by. */
+    public CommandKey getKey() {
+        return this.key;
+    }
+
+    /** @return The args that were left after the key. Changes to them are seen by the command. */
+    public List<String> getArgs() {
+        return this.args;
+    }
+
+    /** @return Whether the command is only checked, without running it or telling the sender anything. */
+    public boolean isDryRun() {
+        return this.dryRun;
+    }
+
+    /** @return Whether the sender is told why the command did not run. */
+    public boolean isNotifySender() {
+        return this.notifySender;
+    }
+
+    /** @return The result being filled in for this dispatch, ie: to set a reason when stopping. */
+    public DispatchResult getResult() {
+        return this.result;
+    }
+}
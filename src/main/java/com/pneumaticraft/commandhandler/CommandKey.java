@@ -1,18 +1,51 @@
 package com.pneumaticraft.commandhandler;
 
+import java.util.List;
+import java.util.regex.Pattern;
+
 public class CommandKey {
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern REGEX_METACHARACTERS = Pattern.compile("[\\\\^$.|?*+()\\[\\]{}]");
+
     private Integer minArgs = null;
     private Integer maxArgs = null;
     private String key = "";
     private Command cmd;
+    private String[] tokens;
+    private Pattern pattern;
+    private int tokenCount;
+    private boolean guessedRegex;
 
     public CommandKey(String key, Command cmd) {
+        this(key, cmd, false);
+    }
+
+    /**
+     * Creates a key that is either a plain literal, matched token by token, or a regular expression that has to match
+     * the start of the space separated args.
+     *
+     * @param key   The key, ie: "mv list" or "mv (tp|teleport)".
+     * @param cmd   The command this key belongs to.
+     * @param regex Whether the key is a regular expression.
+     */
+    public CommandKey(String key, Command cmd, boolean regex) {
         this.key = key;
         this.cmd = cmd;
+        if (regex) {
+            this.pattern = Pattern.compile(key.toLowerCase() + "(\\s+.*|\\s*)");
+            this.tokenCount = key.split(" ").length;
+        } else {
+            this.tokens = WHITESPACE.split(key.toLowerCase().trim());
+            this.tokenCount = this.tokens.length;
+        }
     }
 
     public CommandKey(String key, Command cmd, int minArgs, int maxArgs) {
-        this(key, cmd);
+        this(key, cmd, false, minArgs, maxArgs);
+    }
+
+    public CommandKey(String key, Command cmd, boolean regex, int minArgs, int maxArgs) {
+        this(key, cmd, regex);
         this.minArgs = minArgs;
         this.maxArgs = maxArgs;
     }
@@ -21,13 +54,105 @@ public class CommandKey {
         return this.key;
     }
 
-    public boolean hasValidNumberOfArgs(int args) {
-        if (minArgs == null) {
-            minArgs = this.cmd.getMinArgs();
+    public boolean isRegex() {
+        return this.pattern != null;
+    }
+
+    /**
+     * Every key used to be a regular expression, so keys like "mv(tp|teleport)" that were added as plain keys are
+     * still matched as one, see {@link Command#addKey(String)}.
+     *
+     * @param key A key that was added as a plain key.
+     *
+     * @return Whether it contains characters that have a special meaning in a regular expression.
+     */
+    static boolean looksLikeRegex(String key) {
+        return REGEX_METACHARACTERS.matcher(key).find();
+    }
+
+    /** @return Whether this was added as a plain key, but is matched as a regex, see {@link #looksLikeRegex(String)}. */
+    boolean isGuessedRegex() {
+        return this.guessedRegex;
+    }
+
+    void setGuessedRegex() {
+        this.guessedRegex = true;
+    }
+
+    /**
+     * Returns the lowercase tokens of a literal key. The array is shared, so it must not be modified.
+     *
+     * @return The tokens, or null if this is a regex key.
+     */
+    String[] getTokens() {
+        return this.tokens;
+    }
+
+    /**
+     * Returns how many args this key consumes, ie: 2 for "mv list".
+     *
+     * @return The number of space separated parts of this key.
+     */
+    public int getTokenCount() {
+        return this.tokenCount;
+    }
+
+    /**
+     * Checks whether the given tokens start with this key.
+     *
+     * @param args       The tokenized args.
+     * @param argsString The same tokens joined by single spaces, only used by regex keys. May be null if the key is
+     *                   not a regex.
+     *
+     * @return True if this key matches.
+     */
+    public boolean matches(TokenizedArgs args, String argsString) {
+        if (this.pattern != null) {
+            return this.pattern.matcher(argsString).matches();
         }
-        if (maxArgs == null) {
-            maxArgs = this.cmd.getMaxArgs();
+        if (args.size() < this.tokens.length) {
+            return false;
+        }
+        for (int i = 0; i < this.tokens.length; i++) {
+            if (!args.tokenEquals(i, this.tokens[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the given args start with this key.
+     *
+     * @param parsedArgs The arguments who have been combined, ie: "The world" is one argument
+     * @param argsString The same arguments joined by single spaces, only used by regex keys. May be null if the key
+     *                   is not a regex.
+     *
+     * @return True if this key matches.
+     */
+    public boolean matches(List<String> parsedArgs, String argsString) {
+        if (this.pattern != null) {
+            return this.pattern.matcher(argsString).matches();
         }
+        if (parsedArgs.size() < this.tokens.length) {
+            return false;
+        }
+        for (int i = 0; i < this.tokens.length; i++) {
+            if (!this.tokens[i].equals(parsedArgs.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Command getCommand() {
+        return this.cmd;
+    }
+
+    public boolean hasValidNumberOfArgs(int args) {
+        // Keys without their own range follow the command's, which may still change after the key was added.
+        int minArgs = this.minArgs != null ? this.minArgs : this.cmd.getDescriptor().getMinArgs();
+        int maxArgs = this.maxArgs != null ? this.maxArgs : this.cmd.getDescriptor().getMaxArgs();
         // Min args == -1 case covered here.
         if (minArgs <= args && maxArgs >= args) {
             return true;
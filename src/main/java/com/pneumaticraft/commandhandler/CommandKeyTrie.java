@@ -0,0 +1,275 @@
+package com.pneumaticraft.commandhandler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A keyword tree of every registered {@link CommandKey}, one level per space separated token. Resolving the keys
+ * that match a set of args costs one map lookup per arg instead of one regex per registered key.
+ *
+ * A trie never changes once it's built. Adding or removing a key returns a new trie that copies only the nodes along
+ * that key's path and shares the rest, so a dispatch that is reading the old trie is never affected by a registration.
+ */
+public final class CommandKeyTrie {
+    private static final KeyEntry[] NO_ENTRIES = new KeyEntry[0];
+
+    private final Node root;
+    private final KeyEntry[] regexKeys;
+
+    public CommandKeyTrie() {
+        this(new Node(new HashMap<String, Node>(), NO_ENTRIES), NO_ENTRIES);
+    }
+
+    private CommandKeyTrie(Node root, KeyEntry[] regexKeys) {
+        this.root = root;
+        this.regexKeys = regexKeys;
+    }
+
+    /**
+     * Returns a trie that also contains all keys of the given command.
+     *
+     * @param command The command to add.
+     * @param order   The position the command was registered at, which decides ties between matching commands.
+     *
+     * @return The new trie.
+     */
+    public CommandKeyTrie withCommand(Command command, int order) {
+        CommandKeyTrie trie = this;
+        for (CommandKey key : command.getDescriptor().getKeys()) {
+            trie = trie.withKey(key, order);
+        }
+        return trie;
+    }
+
+    /**
+     * Returns a trie that also contains the given key.
+     *
+     * @param key   The key to add.
+     * @param order The position its command was registered at.
+     *
+     * @return The new trie.
+     */
+    public CommandKeyTrie withKey(CommandKey key, int order) {
+        KeyEntry entry = new KeyEntry(key, order);
+        // Regex keys can't be expressed as tokens, so they are matched with their compiled pattern instead.
+        if (key.isRegex()) {
+            return new CommandKeyTrie(this.root, append(this.regexKeys, entry));
+        }
+        return new CommandKeyTrie(insert(this.root, key.getTokens(), 0, entry), this.regexKeys);
+    }
+
+    private static Node insert(Node node, String[] tokens, int depth, KeyEntry entry) {
+        if (depth == tokens.length) {
+            return new Node(node.children, append(node.entries, entry));
+        }
+        Node child = node.children.get(tokens[depth]);
+        if (child == null) {
+            child = new Node(new HashMap<String, Node>(), NO_ENTRIES);
+        }
+        Map<String, Node> children = new HashMap<String, Node>(node.children);
+        children.put(tokens[depth], insert(child, tokens, depth + 1, entry));
+        return new Node(children, node.entries);
+    }
+
+    /**
+     * Returns a trie without the given keys. Keys that aren't in it are ignored.
+     *
+     * @param keys The keys to remove, ie: the keys a command had before they were replaced.
+     *
+     * @return The new trie.
+     */
+    public CommandKeyTrie withoutKeys(List<CommandKey> keys) {
+        Node root = this.root;
+        KeyEntry[] regexKeys = this.regexKeys;
+        for (CommandKey key : keys) {
+            if (key.isRegex()) {
+                regexKeys = remove(regexKeys, key);
+            } else {
+                root = remove(root, key.getTokens(), 0, key);
+            }
+        }
+        return root == this.root && regexKeys == this.regexKeys ? this : new CommandKeyTrie(root, regexKeys);
+    }
+
+    private static Node remove(Node node, String[] tokens, int depth, CommandKey key) {
+        if (depth == tokens.length) {
+            KeyEntry[] entries = remove(node.entries, key);
+            return entries == node.entries ? node : new Node(node.children, entries);
+        }
+        Node child = node.children.get(tokens[depth]);
+        if (child == null) {
+            return node;
+        }
+        Node updated = remove(child, tokens, depth + 1, key);
+        if (updated == child) {
+            return node;
+        }
+        Map<String, Node> children = new HashMap<String, Node>(node.children);
+        // Drop branches that lead nowhere anymore, so completions don't offer them.
+        if (updated.entries.length == 0 && updated.children.isEmpty()) {
+            children.remove(tokens[depth]);
+        } else {
+            children.put(tokens[depth], updated);
+        }
+        return new Node(children, node.entries);
+    }
+
+    private static KeyEntry[] remove(KeyEntry[] entries, CommandKey key) {
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i].key == key) {
+                KeyEntry[] copy = new KeyEntry[entries.length - 1];
+                System.arraycopy(entries, 0, copy, 0, i);
+                System.arraycopy(entries, i + 1, copy, i, entries.length - i - 1);
+                return copy;
+            }
+        }
+        return entries;
+    }
+
+    private static KeyEntry[] append(KeyEntry[] entries, KeyEntry entry) {
+        KeyEntry[] copy = Arrays.copyOf(entries, entries.length + 1);
+        copy[entries.length] = entry;
+        return copy;
+    }
+
+    /**
+     * Finds the key each command would match for the given args, in the order the commands were registered.
+     *
+     * @param args The tokenized args, where "The world" is one token
+     *
+     * @return At most one key per command, the same one {@link Command#getKey(List)} would have returned.
+     */
+    public List<CommandKey> findMatches(TokenizedArgs args) {
+        Map<CommandKey, KeyEntry> matched = new IdentityHashMap<CommandKey, KeyEntry>();
+        Node node = this.root;
+        for (int i = 0; i < args.size(); i++) {
+            node = node.children.get(args.get(i));
+            if (node == null) {
+                break;
+            }
+            for (KeyEntry entry : node.entries) {
+                matched.put(entry.key, entry);
+            }
+        }
+        if (this.regexKeys.length > 0) {
+            String argsString = args.join();
+            for (KeyEntry entry : this.regexKeys) {
+                if (entry.key.matches(args, argsString)) {
+                    matched.put(entry.key, entry);
+                }
+            }
+        }
+        if (matched.isEmpty()) {
+            return new ArrayList<CommandKey>();
+        }
+
+        // One entry per command, in registration order.
+        Map<Command, KeyEntry> commands = new IdentityHashMap<Command, KeyEntry>();
+        for (KeyEntry entry : matched.values()) {
+            commands.put(entry.key.getCommand(), entry);
+        }
+        List<KeyEntry> ordered = new ArrayList<KeyEntry>(commands.values());
+        Collections.sort(ordered, new Comparator<KeyEntry>() {
+            public int compare(KeyEntry a, KeyEntry b) {
+                return a.order < b.order ? -1 : (a.order == b.order ? 0 : 1);
+            }
+        });
+
+        // A command's keys are sorted longest first, so its first matched key is the one getKey would pick.
+        List<CommandKey> found = new ArrayList<CommandKey>(ordered.size());
+        for (KeyEntry any : ordered) {
+            CommandKey best = any.key;
+            for (CommandKey key : any.key.getCommand().getDescriptor().getKeys()) {
+                if (matched.containsKey(key)) {
+                    best = key;
+                    break;
+                }
+            }
+            found.add(best);
+        }
+        return found;
+    }
+
+    /**
+     * Lists the tokens that can follow the given args, ie: "list" and "load" for "mv" and "l". Only tokens that lead to
+     * at least one command accepted by the filter are returned.
+     *
+     * @param args   The args typed so far, all of them complete.
+     * @param prefix The start of the token being typed, matched case insensitively. May be empty.
+     * @param filter Decides which commands the sender may see.
+     *
+     * @return The matching tokens in alphabetical order.
+     */
+    public List<String> findNextTokens(TokenizedArgs args, String prefix, CommandFilter filter) {
+        List<String> tokens = new ArrayList<String>();
+        Node node = this.root;
+        for (int i = 0; i < args.size() && node != null; i++) {
+            node = node.children.get(args.get(i));
+        }
+        if (node == null) {
+            return tokens;
+        }
+        String lowerPrefix = prefix.toLowerCase();
+        // The tokens are sorted, so everything starting with the prefix is one run starting at its insertion point.
+        int start = Arrays.binarySearch(node.sortedTokens, lowerPrefix);
+        if (start < 0) {
+            start = -start - 1;
+        }
+        for (int i = start; i < node.sortedTokens.length && node.sortedTokens[i].startsWith(lowerPrefix); i++) {
+            if (anyAccepted(node.children.get(node.sortedTokens[i]), filter)) {
+                tokens.add(node.sortedTokens[i]);
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean anyAccepted(Node node, CommandFilter filter) {
+        for (KeyEntry entry : node.entries) {
+            if (filter.accept(entry.key.getCommand())) {
+                return true;
+            }
+        }
+        for (Node child : node.children.values()) {
+            if (anyAccepted(child, filter)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Decides whether a command should be offered, ie: whether the sender has permission to use it.
+     */
+    public interface CommandFilter {
+        public boolean accept(Command command);
+    }
+
+    private static final class Node {
+        private final Map<String, Node> children;
+        private final String[] sortedTokens;
+        private final KeyEntry[] entries;
+
+        private Node(Map<String, Node> children, KeyEntry[] entries) {
+            this.children = children;
+            this.sortedTokens = children.keySet().toArray(new String[children.size()]);
+            Arrays.sort(this.sortedTokens);
+            this.entries = entries;
+        }
+    }
+
+    private static final class KeyEntry {
+        private final CommandKey key;
+        private final int order;
+
+        private KeyEntry(CommandKey key, int order) {
+            this.key = key;
+            this.order = order;
+        }
+    }
+}
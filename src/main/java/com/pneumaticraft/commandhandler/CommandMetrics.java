@@ -0,0 +1,113 @@
+package com.pneumaticraft.commandhandler;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latencies for a single {@link Command}, as seen by one {@link CommandHandler}.
+ */
+public class CommandMetrics {
+    private final Command command;
+    private final AtomicLong invocations;
+    private final AtomicLong denials;
+    private final AtomicLong helpShown;
+    private final AtomicLong argLengthRejects;
+    private final AtomicLong rateLimited;
+    private final LatencyHistogram permissionCheck;
+    private final LatencyHistogram execution;
+
+    public CommandMetrics(Command command) {
+        this.command = command;
+        this.invocations = new AtomicLong();
+        this.denials = new AtomicLong();
+        this.helpShown = new AtomicLong();
+        this.argLengthRejects = new AtomicLong();
+        this.rateLimited = new AtomicLong();
+        this.permissionCheck = new LatencyHistogram();
+        this.execution = new LatencyHistogram();
+    }
+
+    private CommandMetrics(CommandMetrics other) {
+        this.command = other.command;
+        this.invocations = new AtomicLong(other.invocations.get());
+        this.denials = new AtomicLong(other.denials.get());
+        this.helpShown = new AtomicLong(other.helpShown.get());
+        this.argLengthRejects = new AtomicLong(other.argLengthRejects.get());
+        this.rateLimited = new AtomicLong(other.rateLimited.get());
+        this.permissionCheck = other.permissionCheck.copy();
+        this.execution = other.execution.copy();
+    }
+
+    void recordInvocation(long nanos) {
+        this.invocations.incrementAndGet();
+        this.execution.record(nanos);
+    }
+
+    void recordPermissionCheck(long nanos) {
+        this.permissionCheck.record(nanos);
+    }
+
+    void recordDenial() {
+        this.denials.incrementAndGet();
+    }
+
+    void recordHelpShown() {
+        this.helpShown.incrementAndGet();
+    }
+
+    void recordArgLengthReject() {
+        this.argLengthRejects.incrementAndGet();
+    }
+
+    void recordRateLimited() {
+        this.rateLimited.incrementAndGet();
+    }
+
+    public Command getCommand() {
+        return this.command;
+    }
+
+    /** @return How many times runCommand was called. */
+    public long getInvocations() {
+        return this.invocations.get();
+    }
+
+    /** @return How many times the sender lacked permission. */
+    public long getDenials() {
+        return this.denials.get();
+    }
+
+    /** @return How many times help was shown, either for "?" or because of a wrong number of args. */
+    public long getHelpShown() {
+        return this.helpShown.get();
+    }
+
+    /** @return How many times the command was refused for having the wrong number of args. */
+    public long getArgLengthRejects() {
+        return this.argLengthRejects.get();
+    }
+
+    /** @return How many times the sender had to wait for a cooldown or their rate limit. */
+    public long getRateLimited() {
+        return this.rateLimited.get();
+    }
+
+    public LatencyHistogram getPermissionCheckLatency() {
+        return this.permissionCheck;
+    }
+
+    /** @return How long runCommand took. For async commands this is only the hand-off to the executor. */
+    public LatencyHistogram getExecutionLatency() {
+        return this.execution;
+    }
+
+    public CommandMetrics copy() {
+        return new CommandMetrics(this);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d runs, %d denied, %d help, %d bad arg counts, %d throttled, run %s",
+                this.command.getCommandName(), this.getInvocations(), this.getDenials(), this.getHelpShown(),
+                this.getArgLengthRejects(), this.getRateLimited(), this.execution);
+    }
+}
@@ -0,0 +1,82 @@
+package com.pneumaticraft.commandhandler;
+
+import org.bukkit.command.CommandSender;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Tries several handlers in turn until one of them has a command matching the line, ie: a plugin's own commands
+ * before those of its addons. The line is split into args only once, however many handlers are tried.
+ *
+ * Handlers don't suggest other keys when nothing matched, as each of them only knows its own commands.
+ */
+public class DispatchChain {
+    private final List<CommandHandler> handlers;
+    private final ThreadLocal<TokenizedArgs> tokenizedArgs = new ThreadLocal<TokenizedArgs>() {
+        @Override
+        protected TokenizedArgs initialValue() {
+            return new TokenizedArgs();
+        }
+    };
+    private final ThreadLocal<DispatchResult> notFound = new ThreadLocal<DispatchResult>() {
+        @Override
+        protected DispatchResult initialValue() {
+            return new DispatchResult();
+        }
+    };
+
+    public DispatchChain() {
+        this.handlers = new CopyOnWriteArrayList<CommandHandler>();
+    }
+
+    /**
+     * @param handler The handler to try after all handlers that were added before it.
+     */
+    public void addHandler(CommandHandler handler) {
+        this.handlers.add(handler);
+    }
+
+    public void removeHandler(CommandHandler handler) {
+        this.handlers.remove(handler);
+    }
+
+    public List<CommandHandler> getHandlers() {
+        return this.handlers;
+    }
+
+    public DispatchResult dispatch(CommandSender sender, String[] args) {
+        return this.dispatch(sender, args, true); // Notify sender by default
+    }
+
+    /**
+     * @param sender       The sender of the command
+     * @param args         The args as typed, split on spaces
+     * @param notifySender Whether to send optional messages to the command sender
+     *
+     * @return The result of the first handler that matched a command, or {@link DispatchStatus#NOT_FOUND} if none did.
+     */
+    public DispatchResult dispatch(CommandSender sender, String[] args, boolean notifySender) {
+        TokenizedArgs tokens = this.tokenizedArgs.get();
+        tokens.tokenize(args);
+        for (CommandHandler handler : this.handlers) {
+            DispatchResult result = handler.dispatchTokens(sender, tokens, notifySender, false);
+            if (result.isMatched()) {
+                return result;
+            }
+        }
+        DispatchResult result = this.notFound.get();
+        result.reset();
+        if (notifySender) {
+            // Only now that no handler had anything to confirm is the sender told so, and only once.
+            for (CommandHandler handler : this.handlers) {
+                if (handler.isConfirmation(tokens)) {
+                    result.setReason(DispatchResult.NOT_CONFIRMED);
+                    handler.sendNothingToConfirm(sender, tokens);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+}
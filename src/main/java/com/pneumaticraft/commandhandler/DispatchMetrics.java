@@ -0,0 +1,132 @@
+package com.pneumaticraft.commandhandler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Everything a {@link CommandHandler} measured since metrics were enabled: how long parsing and key resolution took
+ * for every dispatch, plus a {@link CommandMetrics} for each command that was matched.
+ */
+public class DispatchMetrics {
+    private final AtomicLong dispatches;
+    private final AtomicLong misses;
+    private final LatencyHistogram parse;
+    private final LatencyHistogram resolve;
+    private final ConcurrentMap<Command, CommandMetrics> commands;
+
+    public DispatchMetrics() {
+        this.dispatches = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.parse = new LatencyHistogram();
+        this.resolve = new LatencyHistogram();
+        this.commands = new ConcurrentHashMap<Command, CommandMetrics>();
+    }
+
+    private DispatchMetrics(DispatchMetrics other) {
+        this.dispatches = new AtomicLong(other.dispatches.get());
+        this.misses = new AtomicLong(other.misses.get());
+        this.parse = other.parse.copy();
+        this.resolve = other.resolve.copy();
+        this.commands = new ConcurrentHashMap<Command, CommandMetrics>();
+        for (CommandMetrics metrics : other.commands.values()) {
+            this.commands.put(metrics.getCommand(), metrics.copy());
+        }
+    }
+
+    void recordParse(long nanos) {
+        this.parse.record(nanos);
+    }
+
+    void recordResolve(long nanos) {
+        this.resolve.record(nanos);
+    }
+
+    /**
+     * Counts one command line, once per entry point it came in by, whether or not its parsing and resolving was timed.
+     *
+     * @param found Whether it matched a command.
+     */
+    void recordDispatch(boolean found) {
+        this.dispatches.incrementAndGet();
+        if (!found) {
+            this.misses.incrementAndGet();
+        }
+    }
+
+    /**
+     * @param command The command to get metrics for.
+     *
+     * @return Its metrics, created on first use.
+     */
+    CommandMetrics forCommand(Command command) {
+        CommandMetrics metrics = this.commands.get(command);
+        if (metrics == null) {
+            metrics = new CommandMetrics(command);
+            CommandMetrics existing = this.commands.putIfAbsent(command, metrics);
+            if (existing != null) {
+                metrics = existing;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * @return How many command lines were dispatched to the handler, directly, by a {@link DispatchChain} or by a
+     *         {@link SharedCommandDispatcher}. Lines a chain split have no parse time recorded, and lines the shared
+     *         dispatcher resolved have no resolve time recorded.
+     */
+    public long getDispatches() {
+        return this.dispatches.get();
+    }
+
+    /** @return How many of the dispatched command lines matched no command of the handler. */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    public LatencyHistogram getParseLatency() {
+        return this.parse;
+    }
+
+    public LatencyHistogram getResolveLatency() {
+        return this.resolve;
+    }
+
+    /**
+     * @param command The command to look up.
+     *
+     * @return Its metrics, or null if it was never matched.
+     */
+    public CommandMetrics getCommandMetrics(Command command) {
+        return this.commands.get(command);
+    }
+
+    public List<CommandMetrics> getAllCommandMetrics() {
+        return new ArrayList<CommandMetrics>(this.commands.values());
+    }
+
+    /**
+     * @return A copy that is no longer updated.
+     */
+    public DispatchMetrics snapshot() {
+        return new DispatchMetrics(this);
+    }
+
+    /**
+     * Writes these metrics to the given logger, one line per command.
+     *
+     * @param logger The logger, usually the plugin's.
+     */
+    public void dump(Logger logger) {
+        logger.log(Level.INFO, String.format("%d commands dispatched, %d unknown. Parse %s, resolve %s",
+                this.getDispatches(), this.getMisses(), this.parse, this.resolve));
+        for (CommandMetrics metrics : this.commands.values()) {
+            logger.log(Level.INFO, metrics.toString());
+        }
+    }
+}
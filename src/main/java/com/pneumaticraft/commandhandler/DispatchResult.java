@@ -0,0 +1,190 @@
+package com.pneumaticraft.commandhandler;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything that is known about one dispatch: what happened, which command and key matched, the args that were left
+ * for the command, why it was refused and how long each step took.
+ *
+ * Each thread reuses the same result for every dispatch, so common outcomes cost nothing to report. A result is only
+ * valid until the same thread dispatches again; use {@link #copy()} to keep it longer.
+ */
+public class DispatchResult {
+    /** The reason given when the sender lacks permission, see {@link #getRequiredPermissions()}. */
+    public static final String MISSING_PERMISSION = "Missing permission";
+    /** The reason given when the command got too few or too many args. */
+    public static final String WRONG_ARG_COUNT = "Wrong number of args";
+    /** The reason given when the sender has to wait, see {@link #getRetryAfterNanos()}. */
+    public static final String TOO_OFTEN = "Rate limited";
+    /** The reason given when the async executor was full. */
+    public static final String TOO_BUSY = "Too many async commands";
+    /** The reason given when confirming a queued command failed, ie: because nothing was queued or it expired. */
+    public static final String NOT_CONFIRMED = "Nothing was confirmed";
+
+    private DispatchStatus status;
+    private Command command;
+    private CommandKey key;
+    private List<String> remainingArgs;
+    private String reason;
+    private List<String> requiredPermissions;
+    private long retryAfterNanos;
+    private long parseNanos;
+    private long resolveNanos;
+    private long executionNanos;
+    private CommandInvocation invocation;
+    // Set while a dispatch fills it in, so a command that dispatches another one doesn't overwrite its own result.
+    boolean inUse;
+
+    public DispatchResult() {
+        this.reset();
+    }
+
+    private DispatchResult(DispatchResult other) {
+        this.status = other.status;
+        this.command = other.command;
+        this.key = other.key;
+        this.remainingArgs = other.remainingArgs;
+        this.reason = other.reason;
+        this.requiredPermissions = other.requiredPermissions;
+        this.retryAfterNanos = other.retryAfterNanos;
+        this.parseNanos = other.parseNanos;
+        this.resolveNanos = other.resolveNanos;
+        this.executionNanos = other.executionNanos;
+    }
+
+    void reset() {
+        this.status = DispatchStatus.NOT_FOUND;
+        this.command = null;
+        this.key = null;
+        this.remainingArgs = Collections.emptyList();
+        this.reason = null;
+        this.requiredPermissions = Collections.emptyList();
+        this.retryAfterNanos = 0;
+        this.parseNanos = -1;
+        this.resolveNanos = -1;
+        this.executionNanos = -1;
+    }
+
+    void setStatus(DispatchStatus status) {
+        this.status = status;
+    }
+
+    void setMatch(CommandKey key, List<String> remainingArgs) {
+        this.key = key;
+        this.command = key.getCommand();
+        this.remainingArgs = remainingArgs;
+    }
+
+    /**
+     * @param reason Why the command did not run, ie: set by a {@link CommandInterceptor} that stopped it.
+     */
+    public void setReason(String reason) {
+        this.reason = reason;
+    }
+
+    void setRequiredPermissions(List<String> requiredPermissions) {
+        this.requiredPermissions = requiredPermissions;
+    }
+
+    void setRetryAfterNanos(long retryAfterNanos) {
+        this.retryAfterNanos = retryAfterNanos;
+    }
+
+    void setParseNanos(long parseNanos) {
+        this.parseNanos = parseNanos;
+    }
+
+    void setResolveNanos(long resolveNanos) {
+        this.resolveNanos = resolveNanos;
+    }
+
+    void setExecutionNanos(long executionNanos) {
+        this.executionNanos = executionNanos;
+    }
+
+    public DispatchStatus getStatus() {
+        return this.status;
+    }
+
+    /** @return Whether a command matched, so a {@link DispatchChain} should not try any other handler. */
+    public boolean isMatched() {
+        return this.status != DispatchStatus.NOT_FOUND;
+    }
+
+    /** @return The command that matched, or null. */
+    public Command getCommand() {
+        return this.command;
+    }
+
+    /** @return The key the command matched by, or null. */
+    public CommandKey getKey() {
+        return this.key;
+    }
+
+    /** @return The args that were left after the key, as handed to the command. Empty if nothing matched. */
+    public List<String> getRemainingArgs() {
+        return this.remainingArgs;
+    }
+
+    /**
+     * @return Why the command did not run, ie: {@link #MISSING_PERMISSION} or the message of an arg that could not be
+     *         converted. Null if it ran or nothing matched.
+     */
+    public String getReason() {
+        return this.reason;
+    }
+
+    /** @return The permissions of which the sender needed one, if they were denied. Empty otherwise. */
+    public List<String> getRequiredPermissions() {
+        return this.requiredPermissions;
+    }
+
+    /** @return How long the sender has to wait if they were rate limited, otherwise 0. */
+    public long getRetryAfterNanos() {
+        return this.retryAfterNanos;
+    }
+
+    /** @return How long splitting the args took, or -1 if metrics are disabled. */
+    public long getParseNanos() {
+        return this.parseNanos;
+    }
+
+    /** @return How long finding the command took, or -1 if metrics are disabled. */
+    public long getResolveNanos() {
+        return this.resolveNanos;
+    }
+
+    /**
+     * @return How long running the command took, or -1 if it did not run or metrics are disabled. For async commands
+     *         this is only the hand-off to the executor.
+     */
+    public long getExecutionNanos() {
+        return this.executionNanos;
+    }
+
+    /** @return The invocation interceptors are handed for this dispatch, reused along with the result. */
+    CommandInvocation getInvocation() {
+        if (this.invocation == null) {
+            this.invocation = new CommandInvocation();
+        }
+        return this.invocation;
+    }
+
+    /** @return A copy that stays the same when the thread dispatches again. */
+    public DispatchResult copy() {
+        return new DispatchResult(this);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder(this.status.name());
+        if (this.key != null) {
+            result.append(" /").append(this.key.getKey());
+        }
+        if (this.reason != null) {
+            result.append(" (").append(this.reason).append(')');
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,36 @@
+package com.pneumaticraft.commandhandler;
+
+/**
+ * What became of a command line after it was handed to a {@link CommandHandler}.
+ */
+public enum DispatchStatus {
+    /** The command ran, or was started in the background if it is async. */
+    EXECUTED(false),
+    /** Dry run only: the command was found, permitted and given a valid number of args, but not run. */
+    VALID(false),
+    /** The only arg was "?", so the command's help was shown instead. */
+    HELP_SHOWN(false),
+    /** No command matched the line, and if it was a confirm line, nothing was queued to confirm. */
+    NOT_FOUND(true),
+    /** The sender has none of the command's permissions. */
+    DENIED(true),
+    /** The command was given too few or too many args. */
+    INVALID_ARGS(true),
+    /** The sender has to wait for the command's cooldown or their rate limit. */
+    RATE_LIMITED(true),
+    /** The command is async and too many async commands were already running. */
+    BUSY(true),
+    /** The command threw an exception, or confirming a queued command failed. */
+    FAILED(true);
+
+    private final boolean error;
+
+    DispatchStatus(boolean error) {
+        this.error = error;
+    }
+
+    /** @return Whether the line did not do what it was asked to. */
+    public boolean isError() {
+        return this.error;
+    }
+}
@@ -0,0 +1,174 @@
+package com.pneumaticraft.commandhandler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds the command keys closest to a mistyped one, ie: "mv lsit" for "mv list". Keys are kept in one BK-tree per
+ * number of tokens, which only visits the part of the tree that can hold keys within the allowed edit distance. A
+ * search also never looks at more than a fixed number of keys, however many commands there are.
+ *
+ * An index never changes once it's built; {@link CommandHandler} builds a new one when keys were added.
+ */
+public final class FuzzyKeyIndex {
+    private final Node[] roots;
+
+    /**
+     * @param commands The commands whose plain keys to index. Regex keys are left out.
+     */
+    public FuzzyKeyIndex(List<Command> commands) {
+        List<Node> roots = new ArrayList<Node>();
+        for (Command command : commands) {
+            for (CommandKey key : command.getDescriptor().getKeys()) {
+                if (key.isRegex()) {
+                    continue;
+                }
+                int tokenCount = key.getTokenCount();
+                while (roots.size() <= tokenCount) {
+                    roots.add(null);
+                }
+                String text = key.getKey().toLowerCase();
+                if (roots.get(tokenCount) == null) {
+                    roots.set(tokenCount, new Node(text, key));
+                } else {
+                    roots.get(tokenCount).insert(text, key);
+                }
+            }
+        }
+        this.roots = roots.toArray(new Node[roots.size()]);
+    }
+
+    /** @return The most tokens any indexed key has. */
+    public int getMaxTokenCount() {
+        return this.roots.length - 1;
+    }
+
+    /**
+     * @param query       The lowercase text to look for.
+     * @param tokenCount  How many tokens the query has; only keys with as many tokens are considered.
+     * @param maxDistance How many single character edits a key may be away from the query.
+     * @param maxVisits   How many keys to compare at most.
+     * @param matches     Where to add the keys that are close enough.
+     */
+    public void search(String query, int tokenCount, int maxDistance, int maxVisits, List<Match> matches) {
+        if (tokenCount >= this.roots.length || this.roots[tokenCount] == null) {
+            return;
+        }
+        List<Node> pending = new ArrayList<Node>();
+        pending.add(this.roots[tokenCount]);
+        int visits = 0;
+        while (!pending.isEmpty() && visits++ < maxVisits) {
+            Node node = pending.remove(pending.size() - 1);
+            int distance = distance(query, node.text);
+            // A key that is typed exactly would have matched, so it's no suggestion.
+            if (distance <= maxDistance && distance > 0) {
+                for (CommandKey key : node.keys) {
+                    matches.add(new Match(key, distance, (double) distance / query.length()));
+                }
+            }
+            // By the triangle inequality, only children this far from the node can be close enough to the query.
+            for (int i = 0; i < node.childDistances.length; i++) {
+                if (Math.abs(node.childDistances[i] - distance) <= maxDistance) {
+                    pending.add(node.children[i]);
+                }
+            }
+        }
+    }
+
+    /** @return The Levenshtein distance between the two strings. */
+    static int distance(String a, String b) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            char c = a.charAt(i - 1);
+            for (int j = 1; j <= b.length(); j++) {
+                int substitution = previous[j - 1] + (c == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+
+    /**
+     * A key that is close to what was typed.
+     */
+    public static final class Match implements Comparable<Match> {
+        private final CommandKey key;
+        private final int distance;
+        private final double relativeDistance;
+
+        private Match(CommandKey key, int distance, double relativeDistance) {
+            this.key = key;
+            this.distance = distance;
+            this.relativeDistance = relativeDistance;
+        }
+
+        public CommandKey getKey() {
+            return this.key;
+        }
+
+        /** @return How many single character edits it is away from what was typed. */
+        public int getDistance() {
+            return this.distance;
+        }
+
+        /** Closest first, relative to the length of what was typed, so one typo in a long key beats one in a short one. */
+        public int compareTo(Match other) {
+            int compared = Double.compare(this.relativeDistance, other.relativeDistance);
+            return compared != 0 ? compared : this.key.getKey().compareTo(other.key.getKey());
+        }
+    }
+
+    private static final class Node {
+        private final String text;
+        private CommandKey[] keys;
+        private int[] childDistances;
+        private Node[] children;
+
+        private Node(String text, CommandKey key) {
+            this.text = text;
+            this.keys = new CommandKey[] {key};
+            this.childDistances = new int[0];
+            this.children = new Node[0];
+        }
+
+        private void insert(String text, CommandKey key) {
+            Node node = this;
+            while (true) {
+                int distance = distance(text, node.text);
+                if (distance == 0) {
+                    // The same key on several commands.
+                    node.keys = Arrays.copyOf(node.keys, node.keys.length + 1);
+                    node.keys[node.keys.length - 1] = key;
+                    return;
+                }
+                Node child = node.child(distance);
+                if (child == null) {
+                    node.childDistances = Arrays.copyOf(node.childDistances, node.childDistances.length + 1);
+                    node.childDistances[node.childDistances.length - 1] = distance;
+                    node.children = Arrays.copyOf(node.children, node.children.length + 1);
+                    node.children[node.children.length - 1] = new Node(text, key);
+                    return;
+                }
+                node = child;
+            }
+        }
+
+        private Node child(int distance) {
+            for (int i = 0; i < this.childDistances.length; i++) {
+                if (this.childDistances[i] == distance) {
+                    return this.children[i];
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.pneumaticraft.commandhandler;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size, lock free histogram of durations in nanoseconds. Like HdrHistogram, every power of two is split into
+ * a few linear sub-buckets, so any recorded value is known to within 12.5% while the whole histogram stays under 4KB.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong count;
+    private final AtomicLong total;
+    private final AtomicLong max;
+
+    public LatencyHistogram() {
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.count = new AtomicLong();
+        this.total = new AtomicLong();
+        this.max = new AtomicLong();
+    }
+
+    private LatencyHistogram(LatencyHistogram other) {
+        this();
+        for (int i = 0; i < BUCKETS; i++) {
+            this.counts.set(i, other.counts.get(i));
+        }
+        this.count.set(other.count.get());
+        this.total.set(other.total.get());
+        this.max.set(other.max.get());
+    }
+
+    /**
+     * @param nanos The duration to record. Negative values are recorded as 0.
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        this.counts.incrementAndGet(bucketOf(value));
+        this.count.incrementAndGet();
+        this.total.addAndGet(value);
+        long currentMax = this.max.get();
+        while (value > currentMax && !this.max.compareAndSet(currentMax, value)) {
+            currentMax = this.max.get();
+        }
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long highestValueIn(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long lowest = (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+        return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    public long getCount() {
+        return this.count.get();
+    }
+
+    public long getMax() {
+        return this.max.get();
+    }
+
+    public double getMean() {
+        long n = this.count.get();
+        return n == 0 ? 0 : (double) this.total.get() / n;
+    }
+
+    /**
+     * @param percentile Between 0 and 100, ie: 99 for the 99th percentile.
+     *
+     * @return The highest value of the bucket holding that percentile, or 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long n = this.count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(n * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += this.counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValueIn(i), this.max.get());
+            }
+        }
+        return this.max.get();
+    }
+
+    /**
+     * @return A copy that is no longer updated. Recording may continue while copying, so it can be slightly skewed.
+     */
+    public LatencyHistogram copy() {
+        return new LatencyHistogram(this);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("p50 %.3fms, p99 %.3fms, max %.3fms",
+                this.getValueAtPercentile(50) / 1e6, this.getValueAtPercentile(99) / 1e6, this.getMax() / 1e6);
+    }
+}
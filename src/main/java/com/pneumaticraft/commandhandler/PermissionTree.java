@@ -0,0 +1,117 @@
+package com.pneumaticraft.commandhandler;
+
+import org.bukkit.permissions.Permission;
+import org.bukkit.plugin.PluginManager;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects permissions together with their wildcard parents, ie: 'multiverse.core.tp.self' under
+ * 'multiverse.core.tp.*', 'multiverse.core.*' and 'multiverse.*', and adds them to Bukkit in one go.
+ *
+ * Adding each permission on its own makes Bukkit recalculate the same parents once for every child. Committing a
+ * whole tree recalculates every parent that changed exactly once.
+ */
+public final class PermissionTree {
+    private final Map<String, Permission> staged;
+
+    public PermissionTree() {
+        this.staged = new LinkedHashMap<String, Permission>();
+    }
+
+    /**
+     * @param permission The permission to add on the next {@link #commit(PluginManager)}.
+     */
+    public void stage(Permission permission) {
+        if (!this.staged.containsKey(permission.getName())) {
+            this.staged.put(permission.getName(), permission);
+        }
+    }
+
+    public boolean isEmpty() {
+        return this.staged.isEmpty();
+    }
+
+    /**
+     * Adds every staged permission that Bukkit doesn't know about yet, and links it into its wildcard parents. The tree
+     * is empty afterwards, so it can be reused for permissions added later.
+     *
+     * @param pluginManager The plugin manager to add the permissions to.
+     *
+     * @return How many parents were created or recalculated.
+     */
+    public int commit(PluginManager pluginManager) {
+        // Parent name -> the children it should have, filled in from the leaves upwards.
+        Map<String, Set<String>> parents = new LinkedHashMap<String, Set<String>>();
+        for (Permission permission : this.staged.values()) {
+            // Permissions that were already registered keep whatever place they had, as they always did.
+            if (pluginManager.getPermission(permission.getName()) == null) {
+                pluginManager.addPermission(permission);
+                link(parents, permission.getName(), pluginManager);
+            }
+        }
+        this.staged.clear();
+
+        int recalculated = 0;
+        for (Map.Entry<String, Set<String>> entry : parents.entrySet()) {
+            Set<String> children = entry.getValue();
+            Permission parent = pluginManager.getPermission(entry.getKey());
+            if (parent == null) {
+                parent = new Permission(entry.getKey());
+                for (String child : children) {
+                    parent.getChildren().put(child, true);
+                }
+                // Adding a permission calculates its defaults, children included.
+                pluginManager.addPermission(parent);
+                recalculated++;
+                continue;
+            }
+            boolean changed = false;
+            for (String child : children) {
+                if (!parent.getChildren().containsKey(child)) {
+                    parent.getChildren().put(child, true);
+                    changed = true;
+                }
+            }
+            if (changed) {
+                pluginManager.recalculatePermissionDefaults(parent);
+                recalculated++;
+            }
+        }
+        return recalculated;
+    }
+
+    private static void link(Map<String, Set<String>> parents, String child, PluginManager pluginManager) {
+        String parent = getParentPerm(child);
+        if (parent == null) {
+            return;
+        }
+        Set<String> children = parents.get(parent);
+        if (children == null) {
+            children = new LinkedHashSet<String>();
+            parents.put(parent, children);
+            // A parent that doesn't exist yet needs a place under its own parent as well.
+            if (pluginManager.getPermission(parent) == null) {
+                link(parents, parent, pluginManager);
+            }
+        }
+        children.add(child);
+    }
+
+    /**
+     * If the given permission was 'multiverse.core.tp.self', this would return 'multiverse.core.tp.*'.
+     *
+     * @return The wildcard parent, or null for a top level permission.
+     */
+    static String getParentPerm(String permString) {
+        String chopped = permString.replace(".*", "");
+        int lastDot = chopped.lastIndexOf('.');
+        if (lastDot < 0) {
+            return null;
+        }
+        return chopped.substring(0, lastDot) + ".*";
+    }
+}
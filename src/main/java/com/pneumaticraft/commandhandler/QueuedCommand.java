@@ -3,57 +3,144 @@ package com.pneumaticraft.commandhandler;
 import org.bukkit.command.CommandSender;
 import org.bukkit.plugin.Plugin;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
 
 public class QueuedCommand {
+    private static final ConcurrentMap<MethodKey, MethodHandle> METHOD_CACHE = new ConcurrentHashMap<MethodKey, MethodHandle>();
+
     private String name;
     private List<? extends Object> args;
     private Class<?> paramTypes[];
+    private QueuedCommandCallback callback;
     private CommandSender sender;
     private Plugin plugin;
-    private Calendar timeRequested;
+    private long expiresAt;
+    private long sequence;
+    private String token;
     private String success;
     private String fail;
-    private int expiration;
-    private boolean alreadyRun;
+    private final AtomicBoolean alreadyRun = new AtomicBoolean();
 
+    /**
+     * @param instance   When the command was requested. Unused: the expiration is counted from now, on a clock that
+     *                   isn't affected by changes to the system time.
+     * @param expiration How many seconds the command can be confirmed for.
+     */
     public QueuedCommand(String commandName, List<? extends Object> args, Class<?> partypes[], CommandSender sender, Calendar instance, Plugin plugin, String success, String fail, int expiration) {
         this.plugin = plugin;
         this.name = commandName;
         this.args = args;
         this.sender = sender;
-        this.timeRequested = instance;
+        this.expiresAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(expiration);
         this.paramTypes = partypes;
         this.setSuccess(success);
         this.setFail(fail);
-        this.expiration = expiration;
+    }
+
+    /**
+     * @param expiration How many seconds the command can be confirmed for.
+     */
+    public QueuedCommand(QueuedCommandCallback callback, CommandSender sender, Plugin plugin, String success, String fail, int expiration) {
+        this.plugin = plugin;
+        this.callback = callback;
+        this.sender = sender;
+        this.expiresAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(expiration);
+        this.setSuccess(success);
+        this.setFail(fail);
+    }
+
+    /**
+     * Looks up a public method of the given class, caching the handle so queuing the same command again costs a
+     * single map lookup.
+     *
+     * @param owner      The class declaring the method, usually the plugin's.
+     * @param methodName The name of the method.
+     * @param paramTypes The parameter types of the method.
+     *
+     * @return A handle to the method, taking the instance as its first argument.
+     *
+     * @throws NoSuchMethodException If there is no such public method.
+     * @throws IllegalAccessException If the method can't be accessed.
+     */
+    public static MethodHandle findMethod(Class<?> owner, String methodName, Class<?>[] paramTypes) throws NoSuchMethodException, IllegalAccessException {
+        MethodKey key = new MethodKey(owner, methodName, paramTypes);
+        MethodHandle handle = METHOD_CACHE.get(key);
+        if (handle == null) {
+            Method method = owner.getMethod(methodName, paramTypes);
+            handle = MethodHandles.publicLookup().unreflect(method);
+            METHOD_CACHE.putIfAbsent(key, handle);
+        }
+        return handle;
+    }
+
+    /**
+     * Wraps a plugin method in a callback, resolving it right away so a missing method is reported when the command
+     * is queued rather than when it's confirmed.
+     *
+     * @param plugin     The plugin to call the method on.
+     * @param methodName The name of the method.
+     * @param args       The arguments to pass.
+     * @param paramTypes The parameter types of the method.
+     *
+     * @return A callback that invokes the method.
+     *
+     * @throws NoSuchMethodException If there is no such public method.
+     * @throws IllegalAccessException If the method can't be accessed.
+     */
+    public static QueuedCommandCallback methodCallback(Plugin plugin, String methodName, List<? extends Object> args, Class<?>[] paramTypes) throws NoSuchMethodException, IllegalAccessException {
+        return new MethodCallback(findMethod(plugin.getClass(), methodName, paramTypes).bindTo(plugin), args);
     }
 
     public CommandSender getSender() {
         return this.sender;
     }
 
+    /**
+     * @return Whether the time to confirm the command has run out.
+     */
+    public boolean isExpired() {
+        return System.nanoTime() - this.expiresAt > 0;
+    }
+
+    void setSequence(long sequence) {
+        this.sequence = sequence;
+        this.token = Long.toString(sequence, 36);
+    }
+
+    /** @return The order in which commands were queued with a handler. */
+    long getSequence() {
+        return this.sequence;
+    }
+
+    /** @return What the sender types after the confirm command to confirm this command, if they have several queued. */
+    public String getToken() {
+        return this.token;
+    }
+
     public boolean execute() {
-        this.timeRequested.add(Calendar.SECOND, this.expiration);
-        if (this.timeRequested.after(Calendar.getInstance())) {
-            if(alreadyRun) {
+        if (!this.isExpired()) {
+            // Claimed atomically, so two confirms arriving at once can't both run it.
+            if (!this.alreadyRun.compareAndSet(false, true)) {
                 this.sender.sendMessage("This command has already been run! Please type the original command again if you want to rerun it.");
                 return false;
             }
             try {
-                this.alreadyRun = true;
-                Method method = this.plugin.getClass().getMethod(this.name, this.paramTypes);
-                Object[] listAsArray = this.args.toArray(new Object[this.args.size()]);
-                Object returnVal = method.invoke(this.plugin, listAsArray);
-                if (returnVal instanceof Boolean) {
-                    return (Boolean) returnVal;
-                } else {
-                    return true;
+                if (this.callback == null) {
+                    this.callback = methodCallback(this.plugin, this.name, this.args, this.paramTypes);
                 }
+                return this.callback.run();
             } catch (Exception e) {
-                System.out.print(e.getMessage());
+                this.plugin.getLogger().log(Level.SEVERE, "Failed to run a confirmed command", e);
             }
         } else {
             this.sender.sendMessage("This command has expired. Please type the original command again.");
@@ -77,4 +164,58 @@ public class QueuedCommand {
         return this.fail;
     }
 
+    private static class MethodCallback implements QueuedCommandCallback {
+        private MethodHandle handle;
+        private List<? extends Object> args;
+
+        private MethodCallback(MethodHandle handle, List<? extends Object> args) {
+            this.handle = handle;
+            this.args = args;
+        }
+
+        public boolean run() {
+            Object returnVal;
+            try {
+                returnVal = this.handle.invokeWithArguments(this.args);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new RuntimeException(t);
+            }
+            if (returnVal instanceof Boolean) {
+                return (Boolean) returnVal;
+            }
+            return true;
+        }
+    }
+
+    private static class MethodKey {
+        private Class<?> owner;
+        private String name;
+        private Class<?>[] paramTypes;
+        private int hash;
+
+        private MethodKey(Class<?> owner, String name, Class<?>[] paramTypes) {
+            this.owner = owner;
+            this.name = name;
+            this.paramTypes = paramTypes == null ? new Class<?>[0] : paramTypes.clone();
+            this.hash = 31 * (31 * owner.hashCode() + name.hashCode()) + Arrays.hashCode(this.paramTypes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof MethodKey)) {
+                return false;
+            }
+            MethodKey other = (MethodKey) o;
+            return this.owner == other.owner && this.name.equals(other.name) && Arrays.equals(this.paramTypes, other.paramTypes);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
 }
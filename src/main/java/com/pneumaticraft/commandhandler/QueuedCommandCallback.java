@@ -0,0 +1,13 @@
+package com.pneumaticraft.commandhandler;
+
+/**
+ * The action behind a queued command, run once the sender confirms it.
+ */
+public interface QueuedCommandCallback {
+    /**
+     * Runs the confirmed command.
+     *
+     * @return True if it succeeded, in which case the success message is shown, otherwise the fail message is.
+     */
+    public boolean run();
+}
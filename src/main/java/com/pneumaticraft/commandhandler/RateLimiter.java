@@ -0,0 +1,210 @@
+package com.pneumaticraft.commandhandler;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.Plugin;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throttles senders, keyed by {@link CommandHandler#getSenderKey}. Every command a sender runs takes a token from their
+ * bucket, which refills at a steady rate, and commands with a cooldown ({@link Command#setCooldown(long)}) can't be
+ * run again by the same sender until it has passed.
+ *
+ * Each bucket and cooldown is a single timestamp that is updated with compare-and-set (the generic cell rate
+ * algorithm), so senders never wait on each other. State that has caught up with the current time is dropped now and
+ * then, and when a player quits, once {@link #registerEvents(Plugin)} was called; {@link CommandHandler} does so for
+ * its own limiter. Cooldowns that are still running are kept, so quitting and joining again doesn't reset them.
+ */
+public class RateLimiter implements Listener {
+    private static final int SWEEP_EVERY = 1024;
+
+    private volatile long refillNanos;
+    private volatile long burstNanos;
+    private final ConcurrentMap<Object, AtomicLong> buckets;
+    private final ConcurrentMap<Command, ConcurrentMap<Object, AtomicLong>> cooldowns;
+    private final AtomicInteger created;
+
+    /**
+     * Creates a rate limiter that only enforces cooldowns, until {@link #setRate(int, long)} is called.
+     */
+    public RateLimiter() {
+        this.buckets = new ConcurrentHashMap<Object, AtomicLong>();
+        this.cooldowns = new ConcurrentHashMap<Command, ConcurrentMap<Object, AtomicLong>>();
+        this.created = new AtomicInteger();
+    }
+
+    /**
+     * @param burst        How many commands a sender can run back to back, or 0 to not limit them at all.
+     * @param refillMillis How long it takes for one more command to become available.
+     */
+    public void setRate(int burst, long refillMillis) {
+        if (burst <= 0 || refillMillis <= 0) {
+            this.refillNanos = 0;
+            this.burstNanos = 0;
+        } else {
+            this.refillNanos = refillMillis * 1000000L;
+            this.burstNanos = (burst - 1) * this.refillNanos;
+        }
+    }
+
+    /**
+     * @param command The command about to run.
+     *
+     * @return Whether running the command would be limited at all, so bypass permissions only need to be checked then.
+     */
+    public boolean isLimited(Command command) {
+        return this.refillNanos > 0 || command.getCooldown() > 0;
+    }
+
+    /**
+     * Takes a token for the sender and starts the command's cooldown, if it may run now.
+     *
+     * @param senderKey The sender, see {@link CommandHandler#getSenderKey}.
+     * @param command   The command about to run.
+     * @param now       The current {@link System#nanoTime()}.
+     *
+     * @return 0 if the command may run, otherwise how many nanoseconds the sender has to wait.
+     */
+    public long tryAcquire(Object senderKey, Command command, long now) {
+        long refill = this.refillNanos;
+        if (refill > 0) {
+            long wait = acquire(this.buckets, senderKey, now, refill, this.burstNanos);
+            if (wait > 0) {
+                return wait;
+            }
+        }
+        long cooldown = command.getCooldown() * 1000000L;
+        if (cooldown > 0) {
+            ConcurrentMap<Object, AtomicLong> senders = this.cooldowns.get(command);
+            if (senders == null) {
+                ConcurrentMap<Object, AtomicLong> fresh = new ConcurrentHashMap<Object, AtomicLong>();
+                senders = this.cooldowns.putIfAbsent(command, fresh);
+                if (senders == null) {
+                    senders = fresh;
+                }
+            }
+            long wait = acquire(senders, senderKey, now, cooldown, 0);
+            if (wait > 0) {
+                if (refill > 0) {
+                    // Nothing ran, so hand back the token taken above.
+                    AtomicLong bucket = this.buckets.get(senderKey);
+                    if (bucket != null) {
+                        bucket.addAndGet(-refill);
+                    }
+                }
+                return wait;
+            }
+        }
+        return 0;
+    }
+
+    private long acquire(ConcurrentMap<Object, AtomicLong> states, Object key, long now, long increment, long tolerance) {
+        AtomicLong state = states.get(key);
+        if (state == null) {
+            AtomicLong fresh = new AtomicLong(now + increment);
+            state = states.putIfAbsent(key, fresh);
+            if (state == null) {
+                if (this.created.incrementAndGet() % SWEEP_EVERY == 0) {
+                    this.sweep(now);
+                }
+                return 0;
+            }
+        }
+        while (true) {
+            // The state is the time at which the sender is fully caught up again.
+            long current = state.get();
+            long base = current - now > 0 ? current : now;
+            long wait = base - now - tolerance;
+            if (wait > 0) {
+                return wait;
+            }
+            if (state.compareAndSet(current, base + increment)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Drops the state of senders that are fully caught up, which behaves the same as having no state at all.
+     */
+    private void sweep(long now) {
+        sweep(this.buckets, now);
+        for (ConcurrentMap<Object, AtomicLong> senders : this.cooldowns.values()) {
+            sweep(senders, now);
+        }
+    }
+
+    private static void sweep(ConcurrentMap<Object, AtomicLong> states, Object key, long now) {
+        AtomicLong state = states.get(key);
+        if (state != null && state.get() - now <= 0 && states.remove(key, state) && state.get() - now > 0) {
+            // The sender ran a command in the meantime; put it back so that doesn't go unlimited.
+            states.putIfAbsent(key, state);
+        }
+    }
+
+    private static void sweep(ConcurrentMap<Object, AtomicLong> states, long now) {
+        Iterator<Map.Entry<Object, AtomicLong>> iterator = states.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getValue().get() - now <= 0) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops the state of a sender that has fully caught up, ie: when they quit. Their cooldowns that are still running
+     * and a bucket that has not refilled yet are kept.
+     *
+     * @param senderKey The sender, see {@link CommandHandler#getSenderKey}.
+     * @param now       The current {@link System#nanoTime()}.
+     */
+    public void forgetIdle(Object senderKey, long now) {
+        sweep(this.buckets, senderKey, now);
+        for (ConcurrentMap<Object, AtomicLong> senders : this.cooldowns.values()) {
+            sweep(senders, senderKey, now);
+        }
+    }
+
+    /**
+     * Forgets everything about a sender, ie: to lift their cooldowns.
+     *
+     * @param senderKey The sender, see {@link CommandHandler#getSenderKey}.
+     */
+    public void forget(Object senderKey) {
+        this.buckets.remove(senderKey);
+        for (ConcurrentMap<Object, AtomicLong> senders : this.cooldowns.values()) {
+            senders.remove(senderKey);
+        }
+    }
+
+    /**
+     * Forgets the cooldowns of a command, ie: when it was unregistered.
+     *
+     * @param command The command.
+     */
+    public void forgetCommand(Command command) {
+        this.cooldowns.remove(command);
+    }
+
+    /**
+     * Drops a player's caught up state when they quit, see {@link #forgetIdle(Object, long)}.
+     *
+     * @param plugin The plugin to register the listener for.
+     */
+    public void registerEvents(Plugin plugin) {
+        plugin.getServer().getPluginManager().registerEvents(this, plugin);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        this.forgetIdle(CommandHandler.getSenderKey(event.getPlayer()), System.nanoTime());
+    }
+}
@@ -0,0 +1,277 @@
+package com.pneumaticraft.commandhandler;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.plugin.RegisteredServiceProvider;
+import org.bukkit.plugin.ServicePriority;
+import org.bukkit.plugin.ServicesManager;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * One key index for the commands of every plugin that uses CommandHandler. The first plugin to call
+ * {@link CommandHandler#joinSharedDispatcher()} registers it with Bukkit's ServicesManager, and the handlers of other
+ * plugins join it instead of being looked up one by one.
+ *
+ * Every handler joins under its own namespace, the lowercase name of its plugin. A line starting with the namespace,
+ * ie: "multiverse-portals:mvp list", only matches that plugin's commands. Otherwise the most specific key of any
+ * plugin wins. Matched commands still run through the handler they were registered with, so permissions, rate limits
+ * and metrics stay per plugin.
+ */
+public class SharedCommandDispatcher {
+    private final double version;
+    private final Object lock = new Object();
+    private final ConcurrentMap<String, CommandHandler> members;
+    private final ConcurrentMap<Command, String> namespaces;
+    private volatile CommandKeyTrie keyTrie;
+    // The position each command joined at, which decides ties between plugins. Kept when the index is rebuilt or a
+    // command is replaced, so leaving or reloading never reshuffles who wins. Guarded by the lock.
+    private final Map<Command, Integer> orders = new IdentityHashMap<Command, Integer>();
+    private int nextOrder;
+    private final ThreadLocal<TokenizedArgs> tokenizedArgs = new ThreadLocal<TokenizedArgs>() {
+        @Override
+        protected TokenizedArgs initialValue() {
+            return new TokenizedArgs();
+        }
+    };
+    private final ThreadLocal<DispatchResult> notFound = new ThreadLocal<DispatchResult>() {
+        @Override
+        protected DispatchResult initialValue() {
+            return new DispatchResult();
+        }
+    };
+
+    /**
+     * @param version The CommandHandler version of the plugin creating it, see {@link CommandHandler#getVersion()}.
+     */
+    public SharedCommandDispatcher(double version) {
+        this.version = version;
+        this.members = new ConcurrentHashMap<String, CommandHandler>();
+        this.namespaces = new ConcurrentHashMap<Command, String>();
+        this.keyTrie = new CommandKeyTrie();
+    }
+
+    /**
+     * Handlers only join a dispatcher whose version is at least their own, so they never rely on behaviour it lacks.
+     *
+     * @return The CommandHandler version this dispatcher was built from.
+     */
+    public double getVersion() {
+        return this.version;
+    }
+
+    /**
+     * @param handler The handler to add, along with all of its commands.
+     *
+     * @throws IllegalStateException If another handler already uses the same namespace.
+     */
+    public void join(CommandHandler handler) {
+        String namespace = getNamespace(handler);
+        synchronized (this.lock) {
+            CommandHandler existing = this.members.get(namespace);
+            if (existing == handler) {
+                return;
+            }
+            if (existing != null) {
+                throw new IllegalStateException("The namespace " + namespace + " is already taken");
+            }
+            this.members.put(namespace, handler);
+            this.keyTrie = this.add(this.keyTrie, namespace, handler.getAllCommands(), false);
+        }
+    }
+
+    /**
+     * Removes a handler and its commands, ie: when its plugin is disabled. If the dispatcher was registered with the
+     * ServicesManager under that handler's plugin, it is registered again under one of the remaining members, as
+     * Bukkit drops the services of a plugin once it is disabled.
+     *
+     * @param handler The handler to remove.
+     */
+    public void leave(CommandHandler handler) {
+        String namespace = getNamespace(handler);
+        // Taken in the same order as CommandHandler.joinSharedDispatcher(), so no plugin joins while the service moves.
+        synchronized (SharedCommandDispatcher.class) {
+            synchronized (this.lock) {
+                if (!this.members.remove(namespace, handler)) {
+                    return;
+                }
+                Iterator<Map.Entry<Command, String>> iterator = this.namespaces.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<Command, String> entry = iterator.next();
+                    if (entry.getValue().equals(namespace)) {
+                        this.orders.remove(entry.getKey());
+                        iterator.remove();
+                    }
+                }
+                // Removing is rare enough to simply rebuild the index from the remaining handlers. Their commands stay
+                // in the namespace map throughout, so dispatching never misses them meanwhile.
+                CommandKeyTrie trie = new CommandKeyTrie();
+                for (Map.Entry<String, CommandHandler> member : this.members.entrySet()) {
+                    trie = this.add(trie, member.getKey(), member.getValue().getAllCommands(), true);
+                }
+                this.keyTrie = trie;
+            }
+            this.handOverService(handler);
+        }
+    }
+
+    private void handOverService(CommandHandler leaving) {
+        ServicesManager services = leaving.getPlugin().getServer().getServicesManager();
+        RegisteredServiceProvider<SharedCommandDispatcher> registration = services.getRegistration(SharedCommandDispatcher.class);
+        if (registration == null || registration.getProvider() != this || registration.getPlugin() != leaving.getPlugin()) {
+            return;
+        }
+        services.unregister(SharedCommandDispatcher.class, this);
+        Iterator<CommandHandler> remaining = this.members.values().iterator();
+        if (remaining.hasNext()) {
+            services.register(SharedCommandDispatcher.class, this, remaining.next().getPlugin(), ServicePriority.Normal);
+        }
+    }
+
+    /** @return The namespaces of all handlers that joined. */
+    public List<String> getNamespaces() {
+        return new ArrayList<String>(this.members.keySet());
+    }
+
+    static String getNamespace(CommandHandler handler) {
+        return handler.getPlugin().getName().toLowerCase();
+    }
+
+    /**
+     * Called by a member handler when it registered more commands.
+     */
+    void commandsRegistered(CommandHandler handler, List<? extends Command> commands) {
+        synchronized (this.lock) {
+            String namespace = getNamespace(handler);
+            if (this.members.get(namespace) == handler) {
+                this.keyTrie = this.add(this.keyTrie, namespace, commands, false);
+            }
+        }
+    }
+
+    /**
+     * Called by a member handler when one of its commands gained a key.
+     */
+    void keyAdded(CommandHandler handler, CommandKey key) {
+        synchronized (this.lock) {
+            Integer order = this.orders.get(key.getCommand());
+            if (this.members.get(getNamespace(handler)) == handler && order != null) {
+                this.keyTrie = this.keyTrie.withKey(key, order);
+            }
+        }
+    }
+
+    /**
+     * Called by a member handler when it unregistered a command.
+     */
+    void commandUnregistered(CommandHandler handler, Command command) {
+        synchronized (this.lock) {
+            String namespace = getNamespace(handler);
+            if (this.members.get(namespace) == handler && this.namespaces.remove(command, namespace)) {
+                this.orders.remove(command);
+                this.keyTrie = this.keyTrie.withoutKeys(command.getKeys());
+            }
+        }
+    }
+
+    /**
+     * Called by a member handler when it replaced one of its commands. The replacement wins the same ties.
+     */
+    void commandReplaced(CommandHandler handler, Command old, Command replacement) {
+        synchronized (this.lock) {
+            String namespace = getNamespace(handler);
+            if (this.members.get(namespace) != handler || !this.namespaces.remove(old, namespace)) {
+                return;
+            }
+            Integer order = this.orders.remove(old);
+            CommandKeyTrie trie = this.keyTrie.withoutKeys(old.getKeys());
+            if (this.namespaces.putIfAbsent(replacement, namespace) == null) {
+                this.orders.put(replacement, order);
+                trie = trie.withCommand(replacement, order);
+            }
+            this.keyTrie = trie;
+        }
+    }
+
+    /**
+     * Called by a member handler when all keys of one of its commands were replaced.
+     */
+    void keysReplaced(CommandHandler handler, Command command, List<CommandKey> oldKeys) {
+        synchronized (this.lock) {
+            String namespace = getNamespace(handler);
+            Integer order = this.orders.get(command);
+            if (this.members.get(namespace) == handler && order != null && namespace.equals(this.namespaces.get(command))) {
+                this.keyTrie = this.keyTrie.withoutKeys(oldKeys).withCommand(command, order);
+            }
+        }
+    }
+
+    private CommandKeyTrie add(CommandKeyTrie trie, String namespace, List<? extends Command> commands, boolean rebuilding) {
+        for (Command command : commands) {
+            // A command registered with several handlers belongs to the first one.
+            String owner = this.namespaces.putIfAbsent(command, namespace);
+            if (owner == null) {
+                this.orders.put(command, this.nextOrder);
+                trie = trie.withCommand(command, this.nextOrder++);
+            } else if (rebuilding && owner.equals(namespace)) {
+                trie = trie.withCommand(command, this.orders.get(command));
+            }
+        }
+        return trie;
+    }
+
+    /**
+     * Finds the best matching command of any plugin and runs it through that plugin's handler.
+     *
+     * @param sender The sender of the command.
+     * @param args   The args as typed, split on spaces. The first one may start with "namespace:".
+     *
+     * @return What happened, see {@link DispatchResult}.
+     */
+    public DispatchResult dispatch(CommandSender sender, String[] args) {
+        String namespace = null;
+        if (args.length > 0) {
+            int colon = args[0].indexOf(':');
+            if (colon > 0 && this.members.containsKey(args[0].substring(0, colon).toLowerCase())) {
+                namespace = args[0].substring(0, colon).toLowerCase();
+                args = args.clone();
+                args[0] = args[0].substring(colon + 1);
+            }
+        }
+        TokenizedArgs tokens = this.tokenizedArgs.get();
+        tokens.tokenize(args);
+
+        List<CommandKey> foundKeys = this.keyTrie.findMatches(tokens);
+        if (namespace != null) {
+            List<CommandKey> inNamespace = new ArrayList<CommandKey>(foundKeys.size());
+            for (CommandKey key : foundKeys) {
+                if (namespace.equals(this.namespaces.get(key.getCommand()))) {
+                    inNamespace.add(key);
+                }
+            }
+            foundKeys = inNamespace;
+        }
+        CommandKey matchingKey = CommandHandler.selectBestKey(foundKeys, tokens.size());
+        if (matchingKey == null) {
+            return this.notFound();
+        }
+        String owningNamespace = this.namespaces.get(matchingKey.getCommand());
+        CommandHandler owner = owningNamespace == null ? null : this.members.get(owningNamespace);
+        if (owner == null) {
+            // Its handler left while we were looking.
+            return this.notFound();
+        }
+        return owner.dispatchResolved(sender, matchingKey, tokens);
+    }
+
+    private DispatchResult notFound() {
+        DispatchResult result = this.notFound.get();
+        result.reset();
+        return result;
+    }
+}
@@ -0,0 +1,210 @@
+package com.pneumaticraft.commandhandler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A quote aware, index based view over the args Bukkit hands us. Tokens are split on whitespace unless they are
+ * wrapped in single or double quotes, ie: {@code mv tp "The world"} has three tokens. Tokens are only turned into
+ * Strings when they're asked for, and a plain token that is a whole arg is returned as is.
+ *
+ * An instance can be reused: every call to {@link #tokenize(String[])} replaces the previous tokens.
+ */
+public class TokenizedArgs {
+    private String[] source = new String[0];
+    private int size;
+    private int[] startArg = new int[8];
+    private int[] startChar = new int[8];
+    private int[] endArg = new int[8];
+    private int[] endChar = new int[8];
+    private boolean[] quoted = new boolean[8];
+    private String[] strings = new String[8];
+
+    /**
+     * Splits the given args into tokens, combining quoted strings.
+     *
+     * @param args The raw args, as passed to onCommand.
+     *
+     * @return False if a quote was never closed, in which case no tokens are kept.
+     */
+    public boolean tokenize(String[] args) {
+        this.source = args;
+        this.size = 0;
+        char quote = 0;
+        boolean inToken = false;
+        boolean tokenQuoted = false;
+        int tokenArg = 0;
+        int tokenChar = 0;
+
+        for (int a = 0; a < args.length; a++) {
+            String arg = args[a];
+            int length = arg.length();
+            // The position just past the end of an arg stands in for the space that separated the args.
+            for (int c = 0; c <= length; c++) {
+                boolean separator = c == length;
+                if (separator && a == args.length - 1) {
+                    break;
+                }
+                char ch = separator ? ' ' : arg.charAt(c);
+                if (quote != 0) {
+                    if (ch == quote) {
+                        quote = 0;
+                    }
+                } else if (ch == '"' || ch == '\'') {
+                    if (!inToken) {
+                        inToken = true;
+                        tokenArg = a;
+                        tokenChar = c;
+                    }
+                    tokenQuoted = true;
+                    quote = ch;
+                } else if (separator || Character.isWhitespace(ch)) {
+                    if (inToken) {
+                        this.addToken(tokenArg, tokenChar, a, c, tokenQuoted);
+                        inToken = false;
+                        tokenQuoted = false;
+                    }
+                } else if (!inToken) {
+                    inToken = true;
+                    tokenArg = a;
+                    tokenChar = c;
+                }
+            }
+        }
+        if (quote != 0) {
+            this.size = 0;
+            return false;
+        }
+        if (inToken) {
+            int last = args.length - 1;
+            this.addToken(tokenArg, tokenChar, last, args[last].length(), tokenQuoted);
+        }
+        return true;
+    }
+
+    private void addToken(int fromArg, int fromChar, int toArg, int toChar, boolean isQuoted) {
+        if (this.size == this.startArg.length) {
+            int capacity = this.size * 2;
+            this.startArg = Arrays.copyOf(this.startArg, capacity);
+            this.startChar = Arrays.copyOf(this.startChar, capacity);
+            this.endArg = Arrays.copyOf(this.endArg, capacity);
+            this.endChar = Arrays.copyOf(this.endChar, capacity);
+            this.quoted = Arrays.copyOf(this.quoted, capacity);
+            this.strings = Arrays.copyOf(this.strings, capacity);
+        }
+        this.startArg[this.size] = fromArg;
+        this.startChar[this.size] = fromChar;
+        this.endArg[this.size] = toArg;
+        this.endChar[this.size] = toChar;
+        this.quoted[this.size] = isQuoted || fromArg != toArg;
+        this.strings[this.size] = null;
+        this.size++;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the given token as a String, with its quotes removed.
+     *
+     * @param index The index of the token.
+     *
+     * @return The token.
+     */
+    public String get(int index) {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException("Token " + index + " of " + this.size);
+        }
+        String token = this.strings[index];
+        if (token == null) {
+            token = this.buildToken(index);
+            this.strings[index] = token;
+        }
+        return token;
+    }
+
+    private String buildToken(int index) {
+        String arg = this.source[this.startArg[index]];
+        if (!this.quoted[index]) {
+            if (this.startChar[index] == 0 && this.endChar[index] == arg.length()) {
+                return arg;
+            }
+            return arg.substring(this.startChar[index], this.endChar[index]);
+        }
+        StringBuilder builder = new StringBuilder();
+        char quote = 0;
+        for (int a = this.startArg[index]; a <= this.endArg[index]; a++) {
+            arg = this.source[a];
+            int from = a == this.startArg[index] ? this.startChar[index] : 0;
+            int to = a == this.endArg[index] ? this.endChar[index] : arg.length() + 1;
+            for (int c = from; c < to; c++) {
+                char ch = c == arg.length() ? ' ' : arg.charAt(c);
+                if (quote != 0) {
+                    if (ch == quote) {
+                        quote = 0;
+                    } else {
+                        builder.append(ch);
+                    }
+                } else if (ch == '"' || ch == '\'') {
+                    quote = ch;
+                } else {
+                    builder.append(ch);
+                }
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Compares a token to the given String without building the token if it can be avoided.
+     *
+     * @param index The index of the token.
+     * @param value The String to compare to.
+     *
+     * @return True if they are equal.
+     */
+    public boolean tokenEquals(int index, String value) {
+        if (index >= this.size) {
+            return false;
+        }
+        if (this.quoted[index] || this.strings[index] != null) {
+            return this.get(index).equals(value);
+        }
+        int length = this.endChar[index] - this.startChar[index];
+        return length == value.length()
+                && this.source[this.startArg[index]].regionMatches(this.startChar[index], value, 0, length);
+    }
+
+    /**
+     * Joins the tokens by single spaces, the way the args looked before quotes were combined.
+     *
+     * @return The joined tokens.
+     */
+    public String join() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < this.size; i++) {
+            if (i > 0) {
+                builder.append(' ');
+            }
+            builder.append(this.get(i));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Copies the tokens starting at the given index into a new list, ie: everything after a command's key.
+     *
+     * @param fromIndex The index of the first token to copy.
+     *
+     * @return A new, mutable list.
+     */
+    public List<String> toList(int fromIndex) {
+        List<String> list = new ArrayList<String>(Math.max(this.size - fromIndex, 0));
+        for (int i = fromIndex; i < this.size; i++) {
+            list.add(this.get(i));
+        }
+        return list;
+    }
+}
@@ -0,0 +1,148 @@
+package com.pneumaticraft.commandhandler;
+
+import org.bukkit.plugin.Plugin;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AuditLogTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Plugin plugin;
+    private TestBukkit.TestCommand command;
+
+    @Before
+    public void setUp() {
+        this.plugin = TestBukkit.plugin("Test");
+        this.command = new TestBukkit.TestCommand(this.plugin, "list", 0, 1, "mv list");
+    }
+
+    private AuditEvent event(String sender, String arg) {
+        return new AuditEvent(System.currentTimeMillis(), sender, this.command, "mv list", Arrays.asList(arg), DispatchStatus.EXECUTED, 0);
+    }
+
+    private List<String> lines(Path file) throws IOException {
+        return Files.readAllLines(file, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void eventsAreWrittenInOrder() throws IOException {
+        Path file = this.folder.getRoot().toPath().resolve("commands.log");
+        AuditLog log = new AuditLog(this.plugin, file, 16, 5, AuditLog.Backpressure.DROP);
+        log.start();
+        assertTrue(log.record(this.event("alice", "1")));
+        assertTrue(log.record(this.event("bob", "2")));
+        log.close();
+
+        List<String> lines = this.lines(file);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).endsWith(" alice /mv list 1 -> EXECUTED (0.000ms)"));
+        assertTrue(lines.get(1).endsWith(" bob /mv list 2 -> EXECUTED (0.000ms)"));
+    }
+
+    @Test
+    public void blockingLosesNothingUnderContention() throws Exception {
+        Path file = this.folder.getRoot().toPath().resolve("commands.log");
+        // Far smaller than what is recorded, so producers keep waiting for the writer.
+        final AuditLog log = new AuditLog(this.plugin, file, 8, 1, AuditLog.Backpressure.BLOCK);
+        log.start();
+        final int threads = 4;
+        final int perThread = 500;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        List<Thread> producers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final String sender = "sender" + t;
+            Thread producer = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < perThread; i++) {
+                            if (!log.record(event(sender, String.valueOf(i)))) {
+                                throw new AssertionError("Dropped " + sender + " " + i);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }
+            });
+            producers.add(producer);
+            producer.start();
+        }
+        start.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        log.close();
+
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(0, log.getDropped());
+        List<String> lines = this.lines(file);
+        assertEquals(threads * perThread, lines.size());
+        Set<String> unique = new HashSet<String>();
+        for (String line : lines) {
+            unique.add(line.substring(line.indexOf(" sender")));
+        }
+        assertEquals(threads * perThread, unique.size());
+    }
+
+    @Test
+    public void droppingCountsWhatDidntFit() throws IOException {
+        Path file = this.folder.getRoot().toPath().resolve("commands.log");
+        // Not started, so nothing makes room.
+        AuditLog log = new AuditLog(this.plugin, file, 4, 5, AuditLog.Backpressure.DROP);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(log.record(this.event("alice", String.valueOf(i))));
+        }
+        assertFalse(log.record(this.event("alice", "4")));
+        assertEquals(1, log.getDropped());
+    }
+
+    @Test
+    public void eventsAfterCloseAreDroppedAndCounted() throws IOException {
+        Path file = this.folder.getRoot().toPath().resolve("commands.log");
+        AuditLog log = new AuditLog(this.plugin, file, 16, 5, AuditLog.Backpressure.BLOCK);
+        log.start();
+        assertTrue(log.record(this.event("alice", "1")));
+        log.close();
+        assertFalse(log.record(this.event("alice", "2")));
+        assertEquals(1, log.getDropped());
+        assertEquals(1, this.lines(file).size());
+    }
+
+    @Test
+    public void fullFilesAreRolledOver() throws IOException {
+        Path file = this.folder.getRoot().toPath().resolve("commands.log");
+        for (int i = 0; i < 3; i++) {
+            // One log per event, so each is its own batch; a batch is never split across files.
+            AuditLog log = new AuditLog(this.plugin, file, 16, 5, AuditLog.Backpressure.BLOCK);
+            log.setMaxFileSize(1);
+            log.setMaxFiles(1);
+            log.start();
+            log.record(this.event("alice", String.valueOf(i)));
+            log.close();
+        }
+        assertTrue(this.lines(file).get(0).endsWith(" alice /mv list 2 -> EXECUTED (0.000ms)"));
+        assertTrue(this.lines(file.resolveSibling("commands.log.1")).get(0).endsWith(" alice /mv list 1 -> EXECUTED (0.000ms)"));
+        assertFalse(Files.exists(file.resolveSibling("commands.log.2")));
+    }
+}
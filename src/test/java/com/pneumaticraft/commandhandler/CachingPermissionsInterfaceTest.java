@@ -0,0 +1,98 @@
+package com.pneumaticraft.commandhandler;
+
+import org.bukkit.command.CommandSender;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CachingPermissionsInterfaceTest {
+    private List<String> asked;
+    private CachingPermissionsInterface cache;
+    private CommandSender alice;
+    private CommandSender bob;
+
+    @Before
+    public void setUp() {
+        this.asked = new ArrayList<String>();
+        this.cache = new CachingPermissionsInterface(new PermissionsInterface() {
+            public boolean hasPermission(CommandSender sender, String node, boolean isOpRequired) {
+                asked.add(sender.getName() + " " + node);
+                return node.startsWith("mv.");
+            }
+
+            public boolean hasAnyPermission(CommandSender sender, List<String> allPermissionStrings, boolean opRequired) {
+                asked.add(sender.getName() + " any " + allPermissionStrings);
+                return true;
+            }
+
+            public boolean hasAllPermission(CommandSender sender, List<String> allPermissionStrings, boolean opRequired) {
+                asked.add(sender.getName() + " all " + allPermissionStrings);
+                return false;
+            }
+        }, 2);
+        this.alice = TestBukkit.sender("alice", new ArrayList<String>());
+        this.bob = TestBukkit.sender("bob", new ArrayList<String>());
+    }
+
+    @Test
+    public void answersAreAskedForOncePerSender() {
+        assertTrue(this.cache.hasPermission(this.alice, "mv.list", false));
+        assertTrue(this.cache.hasPermission(this.alice, "mv.list", false));
+        assertTrue(this.cache.hasPermission(this.bob, "mv.list", false));
+        assertEquals(2, this.asked.size());
+    }
+
+    @Test
+    public void theLeastRecentlyUsedAnswerIsForgotten() {
+        this.cache.hasPermission(this.alice, "mv.a", false);
+        this.cache.hasPermission(this.alice, "mv.b", false);
+        this.cache.hasPermission(this.alice, "mv.a", false);
+        this.cache.hasPermission(this.alice, "mv.c", false);
+        this.asked.clear();
+
+        this.cache.hasPermission(this.alice, "mv.a", false);
+        this.cache.hasPermission(this.alice, "mv.c", false);
+        assertTrue(this.asked.isEmpty());
+        this.cache.hasPermission(this.alice, "mv.b", false);
+        assertEquals(1, this.asked.size());
+    }
+
+    @Test
+    public void aFullSenderLeavesOthersAlone() {
+        this.cache.hasPermission(this.bob, "mv.a", false);
+        for (int i = 0; i < 10; i++) {
+            this.cache.hasPermission(this.alice, "mv." + i, false);
+        }
+        this.asked.clear();
+        this.cache.hasPermission(this.bob, "mv.a", false);
+        assertTrue(this.asked.isEmpty());
+    }
+
+    @Test
+    public void invalidatedSendersAreAskedAgain() {
+        this.cache.hasPermission(this.alice, "mv.a", false);
+        this.cache.hasPermission(this.bob, "mv.a", false);
+        this.cache.invalidate(this.alice);
+        this.cache.hasPermission(this.alice, "mv.a", false);
+        this.cache.hasPermission(this.bob, "mv.a", false);
+        assertEquals(3, this.asked.size());
+        this.cache.invalidateAll();
+        this.cache.hasPermission(this.bob, "mv.a", false);
+        assertEquals(4, this.asked.size());
+    }
+
+    @Test
+    public void listsAreCopiedBeforeTheyAreKept() {
+        List<String> nodes = new ArrayList<String>();
+        nodes.add("mv.a");
+        assertTrue(this.cache.hasAnyPermission(this.alice, nodes, false));
+        nodes.add("mv.b");
+        assertTrue(this.cache.hasAnyPermission(this.alice, nodes, false));
+        assertEquals(2, this.asked.size());
+    }
+}
@@ -0,0 +1,368 @@
+package com.pneumaticraft.commandhandler;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.plugin.Plugin;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CommandHandlerTest {
+    private Plugin plugin;
+    private CommandHandler handler;
+    private List<String> messages;
+    private CommandSender sender;
+
+    @Before
+    public void setUp() {
+        this.plugin = TestBukkit.plugin("Test");
+        this.handler = new CommandHandler(this.plugin, TestBukkit.allowAll());
+        this.messages = new ArrayList<String>();
+        this.sender = TestBukkit.sender("alice", this.messages);
+    }
+
+    private DispatchStatus dispatch(String line) {
+        return this.handler.dispatch(this.sender, line.split(" ")).getStatus();
+    }
+
+    private static class Counter implements QueuedCommandCallback {
+        int runs;
+
+        public boolean run() {
+            this.runs++;
+            return true;
+        }
+    }
+
+    @Test
+    public void queuedCommandRunsOnceConfirmed() {
+        Counter delete = new Counter();
+        String token = this.handler.queueCommand(this.sender, "delete", delete, "Deleted!", "Failed!");
+        assertNotNull(token);
+        assertEquals(1, this.messages.size());
+        assertTrue(this.messages.get(0).contains("/mvconfirm"));
+
+        this.messages.clear();
+        assertEquals(DispatchStatus.EXECUTED, this.dispatch("mvconfirm"));
+        assertEquals(1, delete.runs);
+        assertEquals(Arrays.asList("Deleted!"), this.messages);
+    }
+
+    @Test
+    public void confirmingTwiceRunsTheCommandOnce() {
+        Counter delete = new Counter();
+        this.handler.queueCommand(this.sender, "delete", delete, null, null);
+        assertTrue(this.handler.confirmQueuedCommand(this.sender));
+        assertFalse(this.handler.confirmQueuedCommand(this.sender));
+
+        this.messages.clear();
+        DispatchResult result = this.handler.dispatch(this.sender, new String[]{"mvconfirm"});
+        assertEquals(DispatchStatus.NOT_FOUND, result.getStatus());
+        assertEquals(DispatchResult.NOT_CONFIRMED, result.getReason());
+        assertEquals(Arrays.asList(ChatColor.RED + "You have nothing to confirm."), this.messages);
+        assertEquals(1, delete.runs);
+    }
+
+    @Test
+    public void tokensPickOneOfSeveralQueuedCommands() {
+        Counter first = new Counter();
+        Counter second = new Counter();
+        String firstToken = this.handler.queueCommand(this.sender, "first", first, null, null);
+        String secondToken = this.handler.queueCommand(this.sender, "second", second, null, null);
+        assertFalse(firstToken.equals(secondToken));
+        // Once more than one is waiting, the sender is told which token to use.
+        assertTrue(this.messages.get(1).contains("/mvconfirm " + secondToken));
+
+        assertEquals(DispatchStatus.EXECUTED, this.dispatch("mvconfirm " + firstToken));
+        assertEquals(1, first.runs);
+        assertEquals(0, second.runs);
+        assertEquals(DispatchStatus.EXECUTED, this.dispatch("mvconfirm"));
+        assertEquals(1, second.runs);
+    }
+
+    @Test
+    public void confirmWithoutTokenRunsTheLatest() {
+        Counter first = new Counter();
+        Counter second = new Counter();
+        this.handler.queueCommand(this.sender, "first", first, null, null);
+        this.handler.queueCommand(this.sender, "second", second, null, null);
+        assertEquals(DispatchStatus.EXECUTED, this.dispatch("mvconfirm"));
+        assertEquals(0, first.runs);
+        assertEquals(1, second.runs);
+    }
+
+    @Test
+    public void unknownTokensConfirmNothing() {
+        Counter delete = new Counter();
+        this.handler.queueCommand(this.sender, "delete", delete, null, null);
+        this.messages.clear();
+        assertEquals(DispatchStatus.NOT_FOUND, this.dispatch("mvconfirm zz"));
+        assertEquals(Arrays.asList(ChatColor.RED + "There is nothing to confirm with zz."), this.messages);
+        assertEquals(0, delete.runs);
+    }
+
+    @Test
+    public void quietDispatchesDontSayThereIsNothingToConfirm() {
+        DispatchResult result = this.handler.dispatch(this.sender, new String[]{"mvconfirm"}, false);
+        assertEquals(DispatchStatus.NOT_FOUND, result.getStatus());
+        assertTrue(this.messages.isEmpty());
+    }
+
+    @Test
+    public void cancelledCommandsCantBeConfirmed() {
+        Counter delete = new Counter();
+        String token = this.handler.queueCommand(this.sender, "delete", delete, null, null);
+        this.handler.cancelQueuedCommand(this.sender, token);
+        assertFalse(this.handler.confirmQueuedCommand(this.sender, token));
+        assertEquals(0, delete.runs);
+    }
+
+    @Test
+    public void otherSendersCantConfirm() {
+        Counter delete = new Counter();
+        this.handler.queueCommand(this.sender, "delete", delete, null, null);
+        CommandSender bob = TestBukkit.sender("bob", new ArrayList<String>());
+        assertFalse(this.handler.confirmQueuedCommand(bob));
+        assertEquals(0, delete.runs);
+    }
+
+    @Test
+    public void theConfirmCommandCanBeRenamed() {
+        Counter delete = new Counter();
+        this.handler.setConfirmCommand("confirm");
+        this.handler.queueCommand(this.sender, "delete", delete, null, null);
+        assertEquals(DispatchStatus.NOT_FOUND, this.handler.dispatch(this.sender, new String[]{"mvconfirm"}, false).getStatus());
+        assertEquals(DispatchStatus.EXECUTED, this.dispatch("confirm"));
+        assertEquals(1, delete.runs);
+    }
+
+    @Test
+    public void chainsHandTheConfirmToTheHandlerHoldingTheCommand() {
+        CommandHandler other = new CommandHandler(this.plugin, TestBukkit.allowAll());
+        DispatchChain chain = new DispatchChain();
+        chain.addHandler(this.handler);
+        chain.addHandler(other);
+        Counter delete = new Counter();
+        other.queueCommand(this.sender, "delete", delete, null, null);
+
+        this.messages.clear();
+        assertEquals(DispatchStatus.EXECUTED, chain.dispatch(this.sender, new String[]{"mvconfirm"}).getStatus());
+        assertEquals(1, delete.runs);
+        assertTrue(this.messages.isEmpty());
+
+        // Only once no handler had anything is the sender told, and only once.
+        assertEquals(DispatchStatus.NOT_FOUND, chain.dispatch(this.sender, new String[]{"mvconfirm"}).getStatus());
+        assertEquals(Arrays.asList(ChatColor.RED + "You have nothing to confirm."), this.messages);
+    }
+
+    @Test
+    public void registeredCommandsAreRun() {
+        TestBukkit.TestCommand list = new TestBukkit.TestCommand(this.plugin, "list", 0, 1, "mv list");
+        this.handler.registerCommand(list);
+        DispatchResult result = this.handler.dispatch(this.sender, new String[]{"mv", "list", "2"});
+        assertEquals(DispatchStatus.EXECUTED, result.getStatus());
+        assertSame(list, result.getCommand());
+        assertEquals(Arrays.asList("2"), list.lastArgs);
+        assertEquals(DispatchStatus.INVALID_ARGS, this.dispatch("mv list 2 3"));
+        assertEquals(1, list.runs);
+    }
+
+    @Test
+    public void quietDispatchesDontSayTheyAreTooBusy() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        TestBukkit.TestCommand slow = new TestBukkit.TestCommand(this.plugin, "slow", 0, 0, "mv slow") {
+            @Override
+            public boolean isAsync() {
+                return true;
+            }
+
+            @Override
+            public void runCommand(CommandSender sender, List<String> args) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        this.handler.registerCommand(slow);
+        this.handler.setMaxAsyncCommands(1);
+        try {
+            assertEquals(DispatchStatus.EXECUTED, this.dispatch("mv slow"));
+            this.messages.clear();
+            DispatchResult result = this.handler.dispatch(this.sender, new String[]{"mv", "slow"}, false);
+            assertEquals(DispatchStatus.BUSY, result.getStatus());
+            assertEquals(DispatchResult.TOO_BUSY, result.getReason());
+            assertTrue(this.messages.isEmpty());
+            assertEquals(DispatchStatus.BUSY, this.dispatch("mv slow"));
+            assertEquals(1, this.messages.size());
+        } finally {
+            release.countDown();
+            this.handler.shutdown();
+        }
+    }
+
+    @Test
+    public void everyEntryPointCountsItsDispatches() {
+        this.handler.registerCommand(new TestBukkit.TestCommand(this.plugin, "list", 0, 1, "mv list"));
+        this.handler.setMetricsEnabled(true);
+        this.dispatch("mv list");
+        this.handler.dispatch(this.sender, new String[]{"mv", "nope"}, false);
+
+        CommandHandler other = new CommandHandler(TestBukkit.plugin("Other"), TestBukkit.allowAll());
+        DispatchChain chain = new DispatchChain();
+        chain.addHandler(other);
+        chain.addHandler(this.handler);
+        chain.dispatch(this.sender, new String[]{"mv", "list"}, false);
+        chain.dispatch(this.sender, new String[]{"mv", "nope"}, false);
+
+        SharedCommandDispatcher shared = new SharedCommandDispatcher(1);
+        shared.join(this.handler);
+        shared.dispatch(this.sender, new String[]{"mv", "list"});
+
+        DispatchMetrics metrics = this.handler.getMetrics();
+        assertEquals(5, metrics.getDispatches());
+        assertEquals(2, metrics.getMisses());
+        assertEquals(2, metrics.getParseLatency().getCount());
+        assertEquals(4, metrics.getResolveLatency().getCount());
+    }
+
+    @Test
+    public void unregisteredCommandsAreGone() {
+        TestBukkit.TestCommand list = new TestBukkit.TestCommand(this.plugin, "list", 0, 1, "mv list");
+        this.handler.registerCommand(list);
+        assertTrue(this.handler.unregisterCommand(list));
+        assertFalse(this.handler.unregisterCommand(list));
+        assertEquals(DispatchStatus.NOT_FOUND, this.dispatch("mv list"));
+        assertFalse(this.handler.getAllCommands().contains(list));
+        // Keys added later don't bring it back.
+        list.addKey("mvl");
+        assertEquals(DispatchStatus.NOT_FOUND, this.dispatch("mvl"));
+    }
+
+    @Test
+    public void replacementsKeepTheirPredecessorsPlace() {
+        TestBukkit.TestCommand first = new TestBukkit.TestCommand(this.plugin, "first", 0, 1, "mv x");
+        TestBukkit.TestCommand second = new TestBukkit.TestCommand(this.plugin, "second", 0, 1, "mv x");
+        this.handler.registerCommand(first);
+        this.handler.registerCommand(second);
+        assertSame(second, this.handler.dispatch(this.sender, new String[]{"mv", "x"}).getCommand());
+
+        // Registered again, the first would win ties; as a replacement it still loses them.
+        TestBukkit.TestCommand newFirst = new TestBukkit.TestCommand(this.plugin, "first", 0, 1, "mv x");
+        assertTrue(this.handler.replaceCommand(first, newFirst));
+        assertSame(second, this.handler.dispatch(this.sender, new String[]{"mv", "x"}).getCommand());
+        assertEquals(Arrays.asList(newFirst, second), this.handler.getAllCommands());
+
+        TestBukkit.TestCommand newSecond = new TestBukkit.TestCommand(this.plugin, "second", 0, 1, "mv x");
+        assertTrue(this.handler.replaceCommand(second, newSecond));
+        assertSame(newSecond, this.handler.dispatch(this.sender, new String[]{"mv", "x"}).getCommand());
+        assertFalse(this.handler.replaceCommand(second, newSecond));
+    }
+
+    @Test
+    public void replacedKeysTakeEffect() {
+        TestBukkit.TestCommand list = new TestBukkit.TestCommand(this.plugin, "list", 0, 1, "mv list", "mvl");
+        this.handler.registerCommand(list);
+        list.setKeys(Arrays.asList("mv ls"));
+        assertEquals(DispatchStatus.NOT_FOUND, this.handler.dispatch(this.sender, new String[]{"mvl"}, false).getStatus());
+        assertEquals(DispatchStatus.EXECUTED, this.dispatch("mv ls"));
+        assertEquals(Arrays.asList("mv ls"), list.getKeyStrings());
+    }
+
+    @Test
+    public void reloadingKeysKeepsRegexKeys() {
+        TestBukkit.TestCommand teleport = new TestBukkit.TestCommand(this.plugin, "tp", 0, 1, "mv tp");
+        teleport.addRegexKey("mv (teleport|tele)");
+        this.handler.registerCommand(teleport);
+        teleport.setKeys(Arrays.asList("mvtp"));
+        assertEquals(DispatchStatus.EXECUTED, this.dispatch("mv teleport"));
+        assertEquals(DispatchStatus.EXECUTED, this.dispatch("mvtp"));
+        assertEquals(DispatchStatus.NOT_FOUND, this.handler.dispatch(this.sender, new String[]{"mv", "tp"}, false).getStatus());
+
+        teleport.setKeys(null, Arrays.asList("mv (warp|go)"));
+        assertEquals(DispatchStatus.EXECUTED, this.dispatch("mv go"));
+        assertEquals(DispatchStatus.EXECUTED, this.dispatch("mvtp"));
+        assertEquals(DispatchStatus.NOT_FOUND, this.handler.dispatch(this.sender, new String[]{"mv", "teleport"}, false).getStatus());
+    }
+
+    @Test
+    public void keysThatUsedToBeRegexesStillMatch() {
+        TestBukkit.TestCommand teleport = new TestBukkit.TestCommand(this.plugin, "tp", 0, 1, "mv(tp|teleport)");
+        this.handler.registerCommand(teleport);
+        assertEquals(DispatchStatus.EXECUTED, this.dispatch("mvteleport"));
+
+        // Reloading the plain keys replaces those that were taken for regexes, too.
+        teleport.setKeys(Arrays.asList("mv tp"));
+        assertEquals(Arrays.asList("mv tp"), teleport.getKeyStrings());
+        assertEquals(DispatchStatus.NOT_FOUND, this.handler.dispatch(this.sender, new String[]{"mvteleport"}, false).getStatus());
+    }
+
+    @Test
+    public void onlyCommandsWithKnownSettingsCountAsChanged() {
+        TestBukkit.TestCommand list = new TestBukkit.TestCommand(this.plugin, "list", 0, 1, "mv list");
+        TestBukkit.TestCommand teleport = new TestBukkit.TestCommand(this.plugin, "tp", 0, 1, "mv tp");
+        this.handler.registerCommands(Arrays.<Command>asList(list, teleport));
+        Map<String, Object> listSettings = new HashMap<String, Object>();
+        listSettings.put("max-args", 3);
+        Map<String, Object> teleportSettings = new HashMap<String, Object>();
+        teleportSettings.put("colour", "red");
+        Map<String, Object> commands = new LinkedHashMap<String, Object>();
+        commands.put("list", section(listSettings));
+        commands.put("tp", section(teleportSettings));
+
+        assertEquals(1, this.handler.applyCommandConfig(section(commands)));
+        assertEquals(Integer.valueOf(3), list.getMaxArgs());
+        assertEquals(Integer.valueOf(1), teleport.getMaxArgs());
+    }
+
+    /** A read-only config section over the given values, as far as applyCommandConfig reads one. */
+    private static ConfigurationSection section(final Map<String, Object> values) {
+        return (ConfigurationSection) Proxy.newProxyInstance(CommandHandlerTest.class.getClassLoader(),
+                new Class<?>[]{ConfigurationSection.class}, new InvocationHandler() {
+                    public Object invoke(Object self, Method method, Object[] args) {
+                        String name = method.getName();
+                        if (name.equals("getKeys")) {
+                            return values.keySet();
+                        }
+                        Object value = values.get(args[0]);
+                        if (name.equals("getConfigurationSection")) {
+                            return value instanceof ConfigurationSection ? value : null;
+                        }
+                        if (name.equals("isSet")) {
+                            return value != null;
+                        }
+                        if (name.equals("isList")) {
+                            return value instanceof List;
+                        }
+                        if (name.equals("getStringList")) {
+                            return value;
+                        }
+                        if (name.equals("getInt")) {
+                            return value instanceof Integer ? value : args[1];
+                        }
+                        if (name.equals("getString")) {
+                            return value instanceof String ? value : args[1];
+                        }
+                        throw new UnsupportedOperationException(name);
+                    }
+                });
+    }
+}
@@ -0,0 +1,140 @@
+package com.pneumaticraft.commandhandler;
+
+import org.bukkit.plugin.Plugin;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CommandKeyTrieTest {
+    private static final CommandKeyTrie.CommandFilter ALL = new CommandKeyTrie.CommandFilter() {
+        public boolean accept(Command command) {
+            return true;
+        }
+    };
+
+    private Plugin plugin;
+    private TestBukkit.TestCommand mv;
+    private TestBukkit.TestCommand list;
+    private TestBukkit.TestCommand load;
+
+    @Before
+    public void setUp() {
+        this.plugin = TestBukkit.plugin("Test");
+        this.mv = new TestBukkit.TestCommand(this.plugin, "mv", 0, 5, "mv");
+        this.list = new TestBukkit.TestCommand(this.plugin, "list", 0, 1, "mvlist", "mv list", "mvl");
+        this.load = new TestBukkit.TestCommand(this.plugin, "load", 1, 1, "mv load");
+    }
+
+    private static TokenizedArgs tokens(String... args) {
+        TokenizedArgs tokens = new TokenizedArgs();
+        tokens.tokenize(args);
+        return tokens;
+    }
+
+    private static List<String> keys(List<CommandKey> found) {
+        String[] keys = new String[found.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = found.get(i).getKey();
+        }
+        return Arrays.asList(keys);
+    }
+
+    @Test
+    public void matchesAreInRegistrationOrder() {
+        // Added out of order on purpose: the order passed in decides, not the order of adding.
+        CommandKeyTrie trie = new CommandKeyTrie().withCommand(this.list, 1).withCommand(this.mv, 0);
+        assertEquals(Arrays.asList("mv", "mv list"), keys(trie.findMatches(tokens("mv", "list", "foo"))));
+    }
+
+    @Test
+    public void eachCommandMatchesByItsLongestKey() {
+        TestBukkit.TestCommand both = new TestBukkit.TestCommand(this.plugin, "both", 0, 5, "mv", "mv list");
+        CommandKeyTrie trie = new CommandKeyTrie().withCommand(both, 0);
+        List<CommandKey> found = trie.findMatches(tokens("mv", "list"));
+        assertEquals(Arrays.asList("mv list"), keys(found));
+    }
+
+    @Test
+    public void longestKeyWins() {
+        CommandKeyTrie trie = new CommandKeyTrie().withCommand(this.list, 0).withCommand(this.mv, 1);
+        TokenizedArgs args = tokens("mv", "list", "2");
+        CommandKey best = CommandHandler.selectBestKey(trie.findMatches(args), args.size());
+        assertSame(this.list, best.getCommand());
+        assertEquals("mv list", best.getKey());
+    }
+
+    @Test
+    public void tiesGoToTheLastCommandThatAcceptsTheArgs() {
+        TestBukkit.TestCommand first = new TestBukkit.TestCommand(this.plugin, "first", 0, 1, "mv load");
+        CommandKeyTrie trie = new CommandKeyTrie().withCommand(first, 0).withCommand(this.load, 1);
+
+        TokenizedArgs oneArg = tokens("mv", "load", "world");
+        assertSame(this.load, CommandHandler.selectBestKey(trie.findMatches(oneArg), oneArg.size()).getCommand());
+        // "load" needs exactly one arg, so the earlier command is kept.
+        TokenizedArgs noArgs = tokens("mv", "load");
+        assertSame(first, CommandHandler.selectBestKey(trie.findMatches(noArgs), noArgs.size()).getCommand());
+    }
+
+    @Test
+    public void nothingMatchesAnUnknownKey() {
+        CommandKeyTrie trie = new CommandKeyTrie().withCommand(this.mv, 0);
+        assertTrue(trie.findMatches(tokens("mvx")).isEmpty());
+        assertNull(CommandHandler.selectBestKey(trie.findMatches(tokens("mvx")), 1));
+    }
+
+    @Test
+    public void removedKeysNoLongerMatch() {
+        CommandKeyTrie trie = new CommandKeyTrie().withCommand(this.mv, 0).withCommand(this.list, 1);
+        CommandKeyTrie without = trie.withoutKeys(this.list.getKeys());
+
+        TokenizedArgs args = tokens("mv", "list");
+        assertEquals(Arrays.asList("mv"), keys(without.findMatches(args)));
+        assertSame(this.mv, CommandHandler.selectBestKey(without.findMatches(args), args.size()).getCommand());
+        assertTrue(without.findMatches(tokens("mvl")).isEmpty());
+        // The trie it was made from is left as it was.
+        assertEquals(Arrays.asList("mv", "mv list"), keys(trie.findMatches(args)));
+    }
+
+    @Test
+    public void removingPrunesBranchesThatLeadNowhere() {
+        CommandKeyTrie trie = new CommandKeyTrie().withCommand(this.mv, 0).withCommand(this.list, 1).withCommand(this.load, 2);
+        assertEquals(Arrays.asList("list", "load"), trie.findNextTokens(tokens("mv"), "l", ALL));
+
+        CommandKeyTrie without = trie.withoutKeys(this.list.getKeys());
+        assertEquals(Arrays.asList("load"), without.findNextTokens(tokens("mv"), "l", ALL));
+        assertEquals(Collections.<String>emptyList(), without.findNextTokens(tokens(), "mvl", ALL));
+    }
+
+    @Test
+    public void removingUnknownKeysChangesNothing() {
+        CommandKeyTrie trie = new CommandKeyTrie().withCommand(this.mv, 0);
+        assertSame(trie, trie.withoutKeys(this.list.getKeys()));
+    }
+
+    @Test
+    public void readdedKeysMatchInTheirNewOrder() {
+        CommandKeyTrie trie = new CommandKeyTrie().withCommand(this.load, 0).withCommand(this.mv, 1);
+        trie = trie.withoutKeys(this.load.getKeys()).withCommand(this.load, 2);
+        assertEquals(Arrays.asList("mv", "mv load"), keys(trie.findMatches(tokens("mv", "load", "x"))));
+    }
+
+    @Test
+    public void regexKeysAreMatchedAndRemoved() {
+        TestBukkit.TestCommand tp = new TestBukkit.TestCommand(this.plugin, "tp", 0, 2);
+        tp.addRegexKey("mv (tp|teleport)");
+        CommandKeyTrie trie = new CommandKeyTrie().withCommand(this.mv, 0).withCommand(tp, 1);
+        TokenizedArgs args = tokens("mv", "teleport", "world");
+        assertSame(tp, CommandHandler.selectBestKey(trie.findMatches(args), args.size()).getCommand());
+
+        trie = trie.withoutKeys(tp.getKeys());
+        assertSame(this.mv, CommandHandler.selectBestKey(trie.findMatches(args), args.size()).getCommand());
+    }
+}
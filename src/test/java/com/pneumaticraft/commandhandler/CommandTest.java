@@ -0,0 +1,60 @@
+package com.pneumaticraft.commandhandler;
+
+import org.bukkit.command.CommandSender;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CommandTest {
+    private TestBukkit.TestCommand command;
+    private CommandSender console;
+
+    @Before
+    public void setUp() {
+        this.command = new TestBukkit.TestCommand(TestBukkit.plugin("Test"), "list", 0, 1, "mv list");
+        this.console = TestBukkit.sender("console", new ArrayList<String>());
+    }
+
+    @Test
+    public void helpIsRenderedOnce() {
+        this.command.addCommandExample("/mv list 2");
+        assertSame(this.command.getHelp(this.console), this.command.getHelp(this.console));
+    }
+
+    @Test
+    public void helpFollowsTheExamples() {
+        this.command.addCommandExample("/mv list 2");
+        assertTrue(this.command.getHelp(this.console).endsWith("\n/mv list 2"));
+
+        // Plugins have always been able to change the list they get directly.
+        this.command.getCommandExamples().add("/mv list 3");
+        assertTrue(this.command.getHelp(this.console).endsWith("\n/mv list 2\n/mv list 3"));
+        this.command.getCommandExamples().remove("/mv list 2");
+        assertFalse(this.command.getHelp(this.console).contains("/mv list 2"));
+        this.command.getCommandExamples().clear();
+        assertFalse(this.command.getHelp(this.console).contains("Examples:"));
+    }
+
+    @Test
+    public void helpFollowsTheKeys() {
+        this.command.addKey("mvl");
+        assertTrue(this.command.getHelp(this.console).contains("mv list, mvl"));
+    }
+
+    @Test
+    public void plainKeysThatLookLikeRegexesStayRegexes() {
+        this.command.addKey("mv(tp|teleport)");
+        this.command.addKeys("mv.warp");
+        CommandKey[] keys = this.command.getDescriptor().getKeys();
+        for (CommandKey key : keys) {
+            assertEquals(!key.getKey().equals("mv list"), key.isRegex());
+        }
+        assertEquals(3, keys.length);
+    }
+}
@@ -0,0 +1,83 @@
+package com.pneumaticraft.commandhandler;
+
+import org.bukkit.plugin.Plugin;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FuzzyKeyIndexTest {
+    private TestBukkit.TestCommand list;
+    private TestBukkit.TestCommand load;
+    private TestBukkit.TestCommand teleport;
+    private FuzzyKeyIndex index;
+
+    @Before
+    public void setUp() {
+        Plugin plugin = TestBukkit.plugin("Test");
+        this.list = new TestBukkit.TestCommand(plugin, "list", 0, 1, "mv list", "mvl");
+        this.load = new TestBukkit.TestCommand(plugin, "load", 0, 1, "mv load");
+        this.teleport = new TestBukkit.TestCommand(plugin, "teleport", 0, 1, "mv tp", "mvtp");
+        this.teleport.addRegexKey("mv tp\\d+");
+        this.index = new FuzzyKeyIndex(Arrays.<Command>asList(this.list, this.load, this.teleport));
+    }
+
+    private List<FuzzyKeyIndex.Match> search(String query, int tokenCount, int maxDistance) {
+        List<FuzzyKeyIndex.Match> matches = new ArrayList<FuzzyKeyIndex.Match>();
+        this.index.search(query, tokenCount, maxDistance, 100, matches);
+        Collections.sort(matches);
+        return matches;
+    }
+
+    @Test
+    public void distanceCountsSingleCharacterEdits() {
+        assertEquals(0, FuzzyKeyIndex.distance("list", "list"));
+        assertEquals(2, FuzzyKeyIndex.distance("lsit", "list"));
+        assertEquals(1, FuzzyKeyIndex.distance("lis", "list"));
+        assertEquals(1, FuzzyKeyIndex.distance("lists", "list"));
+        assertEquals(4, FuzzyKeyIndex.distance("", "list"));
+    }
+
+    @Test
+    public void closeKeysAreFoundClosestFirst() {
+        List<FuzzyKeyIndex.Match> matches = this.search("mv lost", 2, 2);
+        assertEquals(2, matches.size());
+        assertSame(this.list, matches.get(0).getKey().getCommand());
+        assertEquals(1, matches.get(0).getDistance());
+        assertSame(this.load, matches.get(1).getKey().getCommand());
+        assertEquals(2, matches.get(1).getDistance());
+    }
+
+    @Test
+    public void onlyKeysWithAsManyTokensAreConsidered() {
+        List<FuzzyKeyIndex.Match> matches = this.search("mvtpp", 1, 1);
+        assertEquals(1, matches.size());
+        assertEquals("mvtp", matches.get(0).getKey().getKey());
+        assertTrue(this.search("mv tpp", 1, 1).isEmpty());
+        assertTrue(this.search("mv tp x", 3, 1).isEmpty());
+        assertEquals(2, this.index.getMaxTokenCount());
+    }
+
+    @Test
+    public void exactAndRegexKeysAreNoSuggestions() {
+        assertTrue(this.search("mv list", 2, 0).isEmpty());
+        for (FuzzyKeyIndex.Match match : this.search("mv tp1", 2, 2)) {
+            assertFalse(match.getKey().isRegex());
+        }
+    }
+
+    @Test
+    public void searchesStopAfterTheirVisits() {
+        List<FuzzyKeyIndex.Match> matches = new ArrayList<FuzzyKeyIndex.Match>();
+        this.index.search("mv lost", 2, 2, 1, matches);
+        assertTrue(matches.size() <= 1);
+    }
+}
@@ -0,0 +1,140 @@
+package com.pneumaticraft.commandhandler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimiterTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private RateLimiter limiter;
+    private TestBukkit.TestCommand command;
+    private TestBukkit.TestCommand slow;
+
+    @Before
+    public void setUp() {
+        this.limiter = new RateLimiter();
+        this.command = new TestBukkit.TestCommand(TestBukkit.plugin("Test"), "list", 0, 1, "mv list");
+        this.slow = new TestBukkit.TestCommand(TestBukkit.plugin("Test"), "regen", 0, 1, "mv regen");
+        this.slow.setCooldown(500);
+    }
+
+    @Test
+    public void nothingIsLimitedByDefault() {
+        assertFalse(this.limiter.isLimited(this.command));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, this.limiter.tryAcquire("alice", this.command, 0));
+        }
+    }
+
+    @Test
+    public void aBurstIsAllowedBackToBack() {
+        this.limiter.setRate(3, 1000);
+        long now = 5 * SECOND;
+        assertTrue(this.limiter.isLimited(this.command));
+        assertEquals(0, this.limiter.tryAcquire("alice", this.command, now));
+        assertEquals(0, this.limiter.tryAcquire("alice", this.command, now));
+        assertEquals(0, this.limiter.tryAcquire("alice", this.command, now));
+        // The fourth has to wait exactly one refill.
+        assertEquals(SECOND, this.limiter.tryAcquire("alice", this.command, now));
+        // Refused attempts don't make the wait any longer.
+        assertEquals(SECOND, this.limiter.tryAcquire("alice", this.command, now));
+    }
+
+    @Test
+    public void tokensRefillAtTheSteadyRate() {
+        this.limiter.setRate(2, 1000);
+        long now = 0;
+        assertEquals(0, this.limiter.tryAcquire("alice", this.command, now));
+        assertEquals(0, this.limiter.tryAcquire("alice", this.command, now));
+        assertEquals(SECOND, this.limiter.tryAcquire("alice", this.command, now));
+
+        now += SECOND / 4;
+        assertEquals(SECOND * 3 / 4, this.limiter.tryAcquire("alice", this.command, now));
+        now += SECOND * 3 / 4;
+        assertEquals(0, this.limiter.tryAcquire("alice", this.command, now));
+        assertEquals(SECOND, this.limiter.tryAcquire("alice", this.command, now));
+
+        // Idling long enough fills the whole burst again, but no more than that.
+        now += 60 * SECOND;
+        assertEquals(0, this.limiter.tryAcquire("alice", this.command, now));
+        assertEquals(0, this.limiter.tryAcquire("alice", this.command, now));
+        assertEquals(SECOND, this.limiter.tryAcquire("alice", this.command, now));
+    }
+
+    @Test
+    public void sendersHaveTheirOwnBuckets() {
+        this.limiter.setRate(1, 1000);
+        assertEquals(0, this.limiter.tryAcquire("alice", this.command, 0));
+        assertTrue(this.limiter.tryAcquire("alice", this.command, 0) > 0);
+        assertEquals(0, this.limiter.tryAcquire("bob", this.command, 0));
+    }
+
+    @Test
+    public void turningTheRateOffStopsLimiting() {
+        this.limiter.setRate(1, 1000);
+        assertEquals(0, this.limiter.tryAcquire("alice", this.command, 0));
+        this.limiter.setRate(0, 1000);
+        assertFalse(this.limiter.isLimited(this.command));
+        assertEquals(0, this.limiter.tryAcquire("alice", this.command, 0));
+    }
+
+    @Test
+    public void cooldownsApplyPerCommand() {
+        long cooldown = TimeUnit.MILLISECONDS.toNanos(500);
+        assertTrue(this.limiter.isLimited(this.slow));
+        assertEquals(0, this.limiter.tryAcquire("alice", this.slow, 0));
+        assertEquals(cooldown, this.limiter.tryAcquire("alice", this.slow, 0));
+        assertEquals(cooldown / 2, this.limiter.tryAcquire("alice", this.slow, cooldown / 2));
+        assertEquals(0, this.limiter.tryAcquire("alice", this.slow, cooldown));
+        assertEquals(0, this.limiter.tryAcquire("bob", this.slow, 0));
+    }
+
+    @Test
+    public void aCommandOnCooldownHandsBackItsToken() {
+        this.limiter.setRate(2, 1000);
+        assertEquals(0, this.limiter.tryAcquire("alice", this.slow, 0));
+        assertTrue(this.limiter.tryAcquire("alice", this.slow, 0) > 0);
+        // The refused command didn't use up the second token.
+        assertEquals(0, this.limiter.tryAcquire("alice", this.command, 0));
+    }
+
+    @Test
+    public void forgottenSendersStartOver() {
+        this.limiter.setRate(1, 1000);
+        assertEquals(0, this.limiter.tryAcquire("alice", this.slow, 0));
+        this.limiter.forget("alice");
+        assertEquals(0, this.limiter.tryAcquire("alice", this.slow, 0));
+    }
+
+    @Test
+    public void quittingKeepsRunningCooldowns() {
+        this.limiter.setRate(1, 1000);
+        assertEquals(0, this.limiter.tryAcquire("alice", this.slow, 0));
+        this.limiter.forgetIdle("alice", 100 * 1000000L);
+        assertTrue(this.limiter.tryAcquire("alice", this.command, 100 * 1000000L) > 0);
+        this.limiter.setRate(0, 0);
+        assertEquals(400 * 1000000L, this.limiter.tryAcquire("alice", this.slow, 100 * 1000000L));
+    }
+
+    @Test
+    public void quittingDropsWhatHasCaughtUp() {
+        this.limiter.setRate(1, 1000);
+        assertEquals(0, this.limiter.tryAcquire("alice", this.slow, 0));
+        this.limiter.forgetIdle("alice", SECOND);
+        assertEquals(0, this.limiter.tryAcquire("alice", this.slow, SECOND));
+        assertTrue(this.limiter.tryAcquire("alice", this.slow, SECOND) > 0);
+    }
+
+    @Test
+    public void forgottenCommandsLoseTheirCooldowns() {
+        assertEquals(0, this.limiter.tryAcquire("alice", this.slow, 0));
+        this.limiter.forgetCommand(this.slow);
+        assertEquals(0, this.limiter.tryAcquire("alice", this.slow, 0));
+    }
+}
@@ -0,0 +1,168 @@
+package com.pneumaticraft.commandhandler;
+
+import org.bukkit.Server;
+import org.bukkit.command.CommandSender;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.ServicesManager;
+import org.bukkit.scheduler.BukkitScheduler;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Just enough of a server for the handler to run on in tests. Tasks and listeners are ignored, and this thread is the
+ * server thread.
+ */
+final class TestBukkit {
+    private TestBukkit() {
+    }
+
+    static Plugin plugin(final String name) {
+        final Server server = proxy(Server.class, new Answer() {
+            private final Object pluginManager = proxy(PluginManager.class, new Answer());
+            private final Object scheduler = proxy(BukkitScheduler.class, new Answer());
+            private final Object services = proxy(ServicesManager.class, new Answer());
+
+            @Override
+            Object answer(Object self, Method method, Object[] args) {
+                if (method.getName().equals("getPluginManager")) {
+                    return this.pluginManager;
+                }
+                if (method.getName().equals("getScheduler")) {
+                    return this.scheduler;
+                }
+                if (method.getName().equals("getServicesManager")) {
+                    return this.services;
+                }
+                if (method.getName().equals("isPrimaryThread")) {
+                    return true;
+                }
+                return super.answer(self, method, args);
+            }
+        });
+        final Logger logger = Logger.getLogger(name);
+        return proxy(Plugin.class, new Answer() {
+            @Override
+            Object answer(Object self, Method method, Object[] args) {
+                if (method.getName().equals("getServer")) {
+                    return server;
+                }
+                if (method.getName().equals("getName")) {
+                    return name;
+                }
+                if (method.getName().equals("getLogger")) {
+                    return logger;
+                }
+                return super.answer(self, method, args);
+            }
+        });
+    }
+
+    /**
+     * @param name     The sender's name.
+     * @param messages Where to add every message sent to the sender.
+     */
+    static CommandSender sender(final String name, final List<String> messages) {
+        return proxy(CommandSender.class, new Answer() {
+            @Override
+            Object answer(Object self, Method method, Object[] args) {
+                if (method.getName().equals("sendMessage")) {
+                    if (args[0] instanceof String[]) {
+                        messages.addAll(Arrays.asList((String[]) args[0]));
+                    } else {
+                        messages.add((String) args[0]);
+                    }
+                    return null;
+                }
+                if (method.getName().equals("getName") || method.getName().equals("toString")) {
+                    return name;
+                }
+                return super.answer(self, method, args);
+            }
+        });
+    }
+
+    /** Grants every permission. */
+    static PermissionsInterface allowAll() {
+        return new PermissionsInterface() {
+            public boolean hasPermission(CommandSender sender, String node, boolean isOpRequired) {
+                return true;
+            }
+
+            public boolean hasAnyPermission(CommandSender sender, List<String> allPermissionStrings, boolean opRequired) {
+                return true;
+            }
+
+            public boolean hasAllPermission(CommandSender sender, List<String> allPermissionStrings, boolean opRequired) {
+                return true;
+            }
+        };
+    }
+
+    private static <T> T proxy(Class<T> type, final Answer answer) {
+        return type.cast(Proxy.newProxyInstance(TestBukkit.class.getClassLoader(), new Class<?>[]{type}, new InvocationHandler() {
+            public Object invoke(Object self, Method method, Object[] args) {
+                return answer.answer(self, method, args);
+            }
+        }));
+    }
+
+    /** Answers every call with the identity of the proxy or the return type's default. */
+    private static class Answer {
+        Object answer(Object self, Method method, Object[] args) {
+            if (method.getName().equals("equals")) {
+                return self == args[0];
+            }
+            if (method.getName().equals("hashCode")) {
+                return System.identityHashCode(self);
+            }
+            Class<?> type = method.getReturnType();
+            if (type == boolean.class) {
+                return false;
+            }
+            if (type == int.class) {
+                return 0;
+            }
+            if (type == long.class) {
+                return 0L;
+            }
+            if (type == double.class) {
+                return 0.0;
+            }
+            if (type == List.class) {
+                return new ArrayList<Object>();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A command that counts how often it ran.
+     */
+    static class TestCommand extends Command {
+        int runs;
+        List<String> lastArgs;
+
+        TestCommand(Plugin plugin, String name, int minArgs, int maxArgs, String... keys) {
+            super(plugin);
+            this.setName(name);
+            this.setCommandUsage("/" + name);
+            this.setArgRange(minArgs, maxArgs);
+            for (String key : keys) {
+                this.addKey(key);
+            }
+        }
+
+        @Override
+        public void runCommand(CommandSender sender, List<String> args) {
+            this.runs++;
+            this.lastArgs = args;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.pneumaticraft.commandhandler;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TokenizedArgsTest {
+    @Test
+    public void plainArgsAreTokensAsTheyAre() {
+        TokenizedArgs tokens = new TokenizedArgs();
+        assertTrue(tokens.tokenize(new String[]{"mv", "list", "2"}));
+        assertEquals(3, tokens.size());
+        assertEquals("mv", tokens.get(0));
+        assertEquals("2", tokens.get(2));
+        assertEquals("mv list 2", tokens.join());
+    }
+
+    @Test
+    public void quotedArgsAreCombined() {
+        TokenizedArgs tokens = new TokenizedArgs();
+        assertTrue(tokens.tokenize(new String[]{"mv", "tp", "\"The", "big", "world\"", "-s"}));
+        assertEquals(Arrays.asList("mv", "tp", "The big world", "-s"), tokens.toList(0));
+    }
+
+    @Test
+    public void singleQuotesWorkToo() {
+        TokenizedArgs tokens = new TokenizedArgs();
+        assertTrue(tokens.tokenize(new String[]{"'The", "world'"}));
+        assertEquals(1, tokens.size());
+        assertEquals("The world", tokens.get(0));
+    }
+
+    @Test
+    public void quotesInsideAQuotedTokenAreKept() {
+        TokenizedArgs tokens = new TokenizedArgs();
+        assertTrue(tokens.tokenize(new String[]{"\"it's", "mine\""}));
+        assertEquals("it's mine", tokens.get(0));
+    }
+
+    @Test
+    public void unclosedQuoteYieldsNoTokens() {
+        TokenizedArgs tokens = new TokenizedArgs();
+        assertFalse(tokens.tokenize(new String[]{"mv", "tp", "\"The", "world"}));
+        assertEquals(0, tokens.size());
+    }
+
+    @Test
+    public void reuseReplacesTheTokens() {
+        TokenizedArgs tokens = new TokenizedArgs();
+        assertFalse(tokens.tokenize(new String[]{"\"open"}));
+        assertTrue(tokens.tokenize(new String[]{"a", "b", "c", "d", "e", "f", "g", "h", "i", "j"}));
+        assertEquals(10, tokens.size());
+        assertEquals("j", tokens.get(9));
+        assertTrue(tokens.tokenize(new String[]{"x"}));
+        assertEquals(Arrays.asList("x"), tokens.toList(0));
+    }
+
+    @Test
+    public void emptyArgsHaveNoTokens() {
+        TokenizedArgs tokens = new TokenizedArgs();
+        assertTrue(tokens.tokenize(new String[0]));
+        assertEquals(0, tokens.size());
+    }
+
+    @Test
+    public void tokensCanBeComparedWithoutBuildingThem() {
+        TokenizedArgs tokens = new TokenizedArgs();
+        tokens.tokenize(new String[]{"mv", "\"a", "b\""});
+        assertTrue(tokens.tokenEquals(0, "mv"));
+        assertTrue(tokens.tokenEquals(1, "a b"));
+        assertFalse(tokens.tokenEquals(1, "a"));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void tokensPastTheEndAreRefused() {
+        TokenizedArgs tokens = new TokenizedArgs();
+        tokens.tokenize(new String[]{"mv"});
+        tokens.get(1);
+    }
+}